@@ -0,0 +1,472 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import neuralnetwork.network.DenseKernel;
+import neuralnetwork.network.Kernel;
+import neuralnetwork.network.KernelCompiler;
+import neuralnetwork.network.Model;
+import neuralnetwork.network.ModelFile;
+import neuralnetwork.network.ShardedKernel;
+import neuralnetwork.network.SparseKernel;
+
+/**
+ * Finds the fastest way to classify images on the current machine.
+ * 
+ * Short timed trials compare the available kernels, the number of threads and
+ * the number of images handed to a thread at once. The workload follows a test
+ * step of {@link Main}: the digit images with noise, classified by the output
+ * layer. Only kernels producing exactly the same results as the
+ * {@link DenseKernel} take part.
+ * 
+ * The result is stored in a properties file, keyed by the number of processors
+ * and the size of the output layer, so later runs can skip the trials.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public class Autotuner {
+    
+    /**
+     * The kernels compared with the {@link DenseKernel}.
+     */
+    private static final String[] KERNELS = {"sparse", "compiled", "sharded"};
+    
+    /**
+     * The numbers of images handed to a thread at once.
+     */
+    private static final int[] BATCH_SIZES = {1, 16, 64, 256};
+    
+    /**
+     * The time spent measuring each configuration, in nanoseconds.
+     */
+    private static final long MEASURE_TIME = 100_000_000L;
+    
+    /**
+     * The number of noisy inputs generated for the trials.
+     */
+    private static final int INPUTS = 1024;
+    
+    /**
+     * A configuration found by the autotuner.
+     */
+    public static final class Tuning {
+        
+        /**
+         * The name of the kernel, {@code dense}, {@code sparse}, {@code compiled} or {@code sharded}.
+         */
+        public final String kernel;
+        
+        /**
+         * The number of classifying threads.
+         */
+        public final int threads;
+        
+        /**
+         * The number of images handed to a thread at once.
+         */
+        public final int batchSize;
+        
+        /**
+         * Creates a new Tuning.
+         * 
+         * @param kernel The name of the kernel, {@code dense}, {@code sparse}, {@code compiled} or {@code sharded}.
+         * @param threads The number of classifying threads.
+         * @param batchSize The number of images handed to a thread at once.
+         */
+        public Tuning(String kernel, int threads, int batchSize) {
+            this.kernel = kernel;
+            this.threads = threads;
+            this.batchSize = batchSize;
+        }
+        
+        /**
+         * Creates the selected kernel for the given model. The tuning may have
+         * been measured with other weights of the same size; if the selected
+         * kernel cannot be built for this model, the model's default kernel is used.
+         * 
+         * @param model The model to classify with.
+         * @return The kernel, combined with the front end if there is one.
+         */
+        public Kernel createKernel(Model model) {
+            Kernel kernel;
+            try {
+                kernel = Autotuner.createKernel(this.kernel, model.weights);
+            } catch (IllegalArgumentException | IllegalStateException ex) {
+                return model.createKernel();
+            }
+            return model.frontEnd == null ? kernel : model.frontEnd.attach(kernel);
+        }
+        
+        @Override
+        public String toString() {
+            return this.kernel + ", " + this.threads + " Threads, " + this.batchSize + " Bilder pro Auftrag";
+        }
+        
+    }
+    
+    /**
+     * The stream the trials are reported to, or null.
+     */
+    private final PrintStream out;
+    
+    /**
+     * The noisy inputs classified during the trials.
+     */
+    private final long[][] inputs;
+    
+    /**
+     * Creates a new Autotuner.
+     * 
+     * @param samples The images the trials are based on.
+     * @param out The stream the trials are reported to, or null.
+     */
+    public Autotuner(Samples samples, PrintStream out) {
+        this.out = out;
+        this.inputs = samples.withNoise(Autotuner.INPUTS, new Random(1)).bits;
+    }
+    
+    /**
+     * Runs the trials for a model file and stores the result.
+     * 
+     * @param args The model file.
+     * @throws IOException If the model, the images or the result file could not be read or written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: Autotuner <model file>");
+            System.exit(2);
+        }
+        Model model = ModelFile.read(Paths.get(args[0]));
+        Tuning tuning = Autotuner.tune(model, System.out);
+        System.out.println("Gewählt: " + tuning + " (gespeichert in " + Autotuner.file() + ")");
+    }
+    
+    /**
+     * Returns the stored tuning for the given model. If there is none and
+     * {@code neuralnetwork.autotune} is set, the trials are run and their
+     * result is stored.
+     * 
+     * @param model The model to classify with.
+     * @return The tuning, or null if none is available.
+     * @throws IOException If the images or the result file could not be read or written.
+     */
+    public static Tuning forModel(Model model) throws IOException {
+        Tuning tuning = Autotuner.load(model.weights[0].length, model.weights.length);
+        if (tuning == null && Boolean.getBoolean("neuralnetwork.autotune")) {
+            tuning = Autotuner.tune(model, null);
+        }
+        return tuning;
+    }
+    
+    /**
+     * Runs the trials for a model and stores the result.
+     * 
+     * @param model The model to classify with.
+     * @param out The stream the trials are reported to, or null.
+     * @return The fastest configuration.
+     * @throws IOException If the images could not be read or the result could not be stored.
+     */
+    public static Tuning tune(Model model, PrintStream out) throws IOException {
+        Samples samples = Samples.load(model.width, model.height);
+        if (model.frontEnd != null) {
+            samples = samples.transform(model.frontEnd);
+        }
+        Tuning tuning = new Autotuner(samples, out).tune(model.weights);
+        Autotuner.save(model.weights[0].length, model.weights.length, tuning);
+        return tuning;
+    }
+    
+    /**
+     * Measures all configurations for the given weights.
+     * 
+     * The kernel is chosen first with a single thread; threads and batch sizes
+     * are measured with the fastest kernel afterwards.
+     * 
+     * @param weights The weights, one row per output neuron.
+     * @return The fastest configuration.
+     */
+    public Tuning tune(double[][] weights) {
+        DenseKernel dense = new DenseKernel(weights);
+        String best = "dense";
+        double bestThroughput = this.measure(dense, 1, 1);
+        this.report("dense", 1, 1, bestThroughput);
+        for (String name : Autotuner.KERNELS) {
+            Kernel kernel;
+            try {
+                kernel = Autotuner.createKernel(name, weights);
+            } catch (IllegalArgumentException | IllegalStateException ex) {
+                continue;
+            }
+            if (this.matches(kernel, dense)) {
+                double throughput = this.measure(kernel, 1, 1);
+                this.report(name, 1, 1, throughput);
+                if (throughput > bestThroughput) {
+                    best = name;
+                    bestThroughput = throughput;
+                }
+            }
+        }
+        Kernel kernel = Autotuner.createKernel(best, weights);
+        Tuning tuning = new Tuning(best, 1, 1);
+        for (int threads : Autotuner.threadCounts()) {
+            for (int batchSize : Autotuner.BATCH_SIZES) {
+                if (threads == 1 && batchSize == 1) {
+                    continue;
+                }
+                double throughput = this.measure(kernel, threads, batchSize);
+                this.report(best, threads, batchSize, throughput);
+                if (throughput > bestThroughput) {
+                    tuning = new Tuning(best, threads, batchSize);
+                    bestThroughput = throughput;
+                }
+            }
+        }
+        return tuning;
+    }
+    
+    /**
+     * Creates a kernel by its name.
+     * 
+     * @param name The name of the kernel, {@code dense}, {@code sparse}, {@code compiled} or {@code sharded}.
+     * @param weights The weights, one row per output neuron.
+     * @return The kernel.
+     */
+    private static Kernel createKernel(String name, double[][] weights) {
+        switch (name) {
+            case "sparse":
+                return SparseKernel.threshold(weights, 0.0);
+            case "compiled":
+                return KernelCompiler.compile(weights);
+            case "sharded":
+                return ShardedKernel.create(weights);
+            default:
+                return new DenseKernel(weights);
+        }
+    }
+    
+    /**
+     * Checks whether two kernels produce exactly the same signals for all trial inputs.
+     * 
+     * @param kernel The kernel to check.
+     * @param reference The kernel producing the expected signals.
+     * @return True if all signals are equal.
+     */
+    private boolean matches(Kernel kernel, Kernel reference) {
+        double[] scores = new double[kernel.outputs()];
+        double[] expected = new double[reference.outputs()];
+        for (long[] input : this.inputs) {
+            kernel.score(input, scores);
+            reference.score(input, expected);
+            if (!Arrays.equals(scores, expected)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Returns the thread counts to try: powers of two up to the number of processors.
+     * 
+     * @return The thread counts.
+     */
+    private static List<Integer> threadCounts() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        List<Integer> counts = new ArrayList<>();
+        for (int threads = 1; threads < processors; threads *= 2) {
+            counts.add(threads);
+        }
+        counts.add(processors);
+        return counts;
+    }
+    
+    /**
+     * Measures the throughput of a configuration.
+     * The configuration is run once without measuring to let the JIT compile it.
+     * 
+     * @param kernel The kernel to measure.
+     * @param threads The number of classifying threads.
+     * @param batchSize The number of images handed to a thread at once.
+     * @return The number of images per second.
+     */
+    private double measure(Kernel kernel, int threads, int batchSize) {
+        this.run(kernel, threads, batchSize, Autotuner.MEASURE_TIME / 2);
+        return this.run(kernel, threads, batchSize, Autotuner.MEASURE_TIME);
+    }
+    
+    /**
+     * Classifies the trial inputs with several threads for the given time.
+     * Each thread repeatedly claims the next batch of images from a shared counter.
+     * 
+     * @return The number of images per second.
+     */
+    private double run(Kernel kernel, int threads, int batchSize, long time) {
+        AtomicLong next = new AtomicLong();
+        long start = System.nanoTime();
+        long end = start + time;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                double[] scores = new double[kernel.outputs()];
+                int sink = 0;
+                while (System.nanoTime() < end) {
+                    long first = next.getAndAdd(batchSize);
+                    for (long i = first; i < first + batchSize; i++) {
+                        sink += kernel.classify(this.inputs[(int) (i % this.inputs.length)], scores);
+                    }
+                }
+                if (sink == -1) {
+                    next.set(0);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return next.get() * 1e9 / (System.nanoTime() - start);
+    }
+    
+    /**
+     * Reports a single trial.
+     */
+    private void report(String kernel, int threads, int batchSize, double throughput) {
+        if (this.out != null) {
+            this.out.printf("%-8s %3d Threads %4d Bilder/Auftrag %14.0f Bilder/s%n", kernel, threads, batchSize, throughput);
+        }
+    }
+    
+    /**
+     * Returns the file storing the tuning results, set by
+     * {@code neuralnetwork.autotune.file} (default {@code .neuralnetwork/autotune.properties}
+     * in the home directory).
+     * 
+     * @return The result file.
+     */
+    public static Path file() {
+        String file = System.getProperty("neuralnetwork.autotune.file");
+        return file != null ? Paths.get(file) : Paths.get(System.getProperty("user.home"), ".neuralnetwork", "autotune.properties");
+    }
+    
+    /**
+     * Returns the key prefix of the results for this machine and the given layer size.
+     * 
+     * @param inputs The number of inputs of the output layer.
+     * @param outputs The number of output neurons.
+     * @return The key prefix.
+     */
+    private static String key(int inputs, int outputs) {
+        return Runtime.getRuntime().availableProcessors() + "cpu." + inputs + "in." + outputs + "out.";
+    }
+    
+    /**
+     * Reads the stored tuning for this machine and the given layer size.
+     * 
+     * @param inputs The number of inputs of the output layer.
+     * @param outputs The number of output neurons.
+     * @return The tuning, or null if none or an invalid one is stored.
+     * @throws IOException If the result file could not be read.
+     */
+    public static Tuning load(int inputs, int outputs) throws IOException {
+        Properties properties = Autotuner.read();
+        String key = Autotuner.key(inputs, outputs);
+        String kernel = properties.getProperty(key + "kernel");
+        if (kernel == null) {
+            return null;
+        }
+        int threads;
+        int batchSize;
+        try {
+            threads = Integer.parseInt(properties.getProperty(key + "threads"));
+            batchSize = Integer.parseInt(properties.getProperty(key + "batch"));
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+        if (threads < 1 || batchSize < 1) {
+            return null;
+        }
+        return new Tuning(kernel, threads, batchSize);
+    }
+    
+    /**
+     * Stores a tuning for this machine and the given layer size.
+     * Results for other machines and layer sizes are kept.
+     * 
+     * @param inputs The number of inputs of the output layer.
+     * @param outputs The number of output neurons.
+     * @param tuning The tuning to store.
+     * @throws IOException If the result file could not be written.
+     */
+    public static void save(int inputs, int outputs, Tuning tuning) throws IOException {
+        Properties properties = Autotuner.read();
+        String key = Autotuner.key(inputs, outputs);
+        properties.setProperty(key + "kernel", tuning.kernel);
+        properties.setProperty(key + "threads", Integer.toString(tuning.threads));
+        properties.setProperty(key + "batch", Integer.toString(tuning.batchSize));
+        Path file = Autotuner.file();
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        try (OutputStream out = Files.newOutputStream(file)) {
+            properties.store(out, "Autotuner results: <processors>cpu.<inputs>in.<outputs>out.<setting>");
+        }
+    }
+    
+    /**
+     * Reads the result file.
+     * 
+     * @return The stored results, empty if there is no file.
+     * @throws IOException If the result file could not be read.
+     */
+    private static Properties read() throws IOException {
+        Properties properties = new Properties();
+        Path file = Autotuner.file();
+        if (Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+            }
+        }
+        return properties;
+    }
+    
+}
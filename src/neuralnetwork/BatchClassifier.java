@@ -0,0 +1,431 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import neuralnetwork.network.InputBits;
+import neuralnetwork.network.Kernel;
+import neuralnetwork.network.Model;
+import neuralnetwork.network.ModelFile;
+import neuralnetwork.network.Ranking;
+
+/**
+ * Classifies all images in a directory tree without a graphical user interface.
+ * 
+ * The images are decoded and classified by a pool of worker threads, which take
+ * a batch of images at a time. Results are written as soon as their batch is
+ * done, either as CSV or as JSON lines. Optionally, each result also lists the
+ * strongest digits with their confidences, see {@link Ranking}.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public class BatchClassifier {
+    
+    /**
+     * The command line usage.
+     */
+    private static final String USAGE = "Usage: --model <file> [--format csv|json] [--output <file>] [--threads <n>] [--top <k>] <directory>";
+    
+    /**
+     * The maximum number of queued batches per worker thread.
+     */
+    private static final int QUEUE_PER_THREAD = 4;
+    
+    /**
+     * The number of noisy digit images the confidences are calibrated on.
+     */
+    private static final int CALIBRATION_INPUTS = 400;
+    
+    /**
+     * The network used for classification.
+     */
+    private final Kernel kernel;
+    
+    /**
+     * The width of the images the network expects.
+     */
+    private final int width;
+    
+    /**
+     * The height of the images the network expects.
+     */
+    private final int height;
+    
+    /**
+     * Determines whether results are written as JSON lines instead of CSV.
+     */
+    private final boolean json;
+    
+    /**
+     * The number of worker threads.
+     */
+    private final int threads;
+    
+    /**
+     * The number of images a worker thread classifies at a time.
+     */
+    private final int batchSize;
+    
+    /**
+     * The number of strongest digits listed per image, zero to list none.
+     */
+    private final int top;
+    
+    /**
+     * The temperature of the confidences of the listed digits.
+     */
+    private final double temperature;
+    
+    /**
+     * Creates a new BatchClassifier.
+     * 
+     * @param model The network used for classification.
+     * @param json If true, results are written as JSON lines, otherwise as CSV.
+     * @param threads The number of worker threads.
+     */
+    public BatchClassifier(Model model, boolean json, int threads) {
+        this(model, model.createKernel(), json, threads);
+    }
+    
+    /**
+     * Creates a new BatchClassifier using the given kernel.
+     * 
+     * @param model The network used for classification.
+     * @param kernel Classifies the images of the model.
+     * @param json If true, results are written as JSON lines, otherwise as CSV.
+     * @param threads The number of worker threads.
+     */
+    public BatchClassifier(Model model, Kernel kernel, boolean json, int threads) {
+        this(model, kernel, json, threads, 1);
+    }
+    
+    /**
+     * Creates a new BatchClassifier using the given kernel and batch size.
+     * 
+     * @param model The network used for classification.
+     * @param kernel Classifies the images of the model.
+     * @param json If true, results are written as JSON lines, otherwise as CSV.
+     * @param threads The number of worker threads.
+     * @param batchSize The number of images a worker thread classifies at a time.
+     */
+    public BatchClassifier(Model model, Kernel kernel, boolean json, int threads, int batchSize) {
+        this(model, kernel, json, threads, batchSize, 0, 1.0);
+    }
+    
+    /**
+     * Creates a new BatchClassifier listing the strongest digits of each image.
+     * 
+     * @param model The network used for classification.
+     * @param kernel Classifies the images of the model.
+     * @param json If true, results are written as JSON lines, otherwise as CSV.
+     * @param threads The number of worker threads.
+     * @param batchSize The number of images a worker thread classifies at a time.
+     * @param top The number of strongest digits listed per image, zero to list none.
+     * @param temperature The temperature of their confidences, see {@link Ranking#calibrate(Kernel, long[][], int[])}.
+     */
+    public BatchClassifier(Model model, Kernel kernel, boolean json, int threads, int batchSize, int top, double temperature) {
+        this.kernel = kernel;
+        this.width = model.width;
+        this.height = model.height;
+        this.json = json;
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.top = Math.min(top, kernel.outputs());
+        this.temperature = temperature;
+    }
+    
+    /**
+     * Parses the command line and classifies the given directory.
+     * Called by {@link Main#main(String[])} if arguments are given.
+     * The kernel, the batch size and, unless given, the number of threads are
+     * taken from the {@link Autotuner} results for this machine if available.
+     * If the strongest digits are listed, the temperature of their confidences
+     * is calibrated on noisy digit images, see {@link #calibrate(Model, Kernel)}.
+     * 
+     * @param args The command line arguments.
+     * @return The exit status, zero if all images were classified.
+     */
+    public static int run(String[] args) {
+        String model = null;
+        String output = null;
+        String format = "csv";
+        int threads = 0;
+        int top = 0;
+        String directory = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--model":
+                        model = args[++i];
+                        break;
+                    case "--output":
+                        output = args[++i];
+                        break;
+                    case "--format":
+                        format = args[++i];
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        if (threads < 1) {
+                            throw new NumberFormatException("Invalid thread count: " + threads);
+                        }
+                        break;
+                    case "--top":
+                        top = Integer.parseInt(args[++i]);
+                        if (top < 1) {
+                            throw new NumberFormatException("Invalid number of digits: " + top);
+                        }
+                        break;
+                    default:
+                        directory = args[i];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException ex) {
+            model = null;
+        }
+        if (model == null || directory == null || !(format.equals("csv") || format.equals("json"))) {
+            System.err.println(BatchClassifier.USAGE);
+            return 2;
+        }
+        try {
+            Model network = ModelFile.read(Paths.get(model));
+            Autotuner.Tuning tuning = Autotuner.forModel(network);
+            Kernel kernel = tuning == null ? network.createKernel() : tuning.createKernel(network);
+            if (threads == 0) {
+                threads = tuning == null ? Runtime.getRuntime().availableProcessors() : tuning.threads;
+            }
+            int batchSize = tuning == null ? 1 : tuning.batchSize;
+            double temperature = top > 0 ? BatchClassifier.calibrate(network, kernel) : 1.0;
+            BatchClassifier classifier = new BatchClassifier(network, kernel, format.equals("json"), threads, batchSize, top, temperature);
+            if (output == null) {
+                Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+                return classifier.classify(Paths.get(directory), out);
+            }
+            try (Writer out = Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8)) {
+                return classifier.classify(Paths.get(directory), out);
+            }
+        } catch (IOException ex) {
+            System.err.println("Error: " + ex.getMessage());
+            return 1;
+        }
+    }
+    
+    /**
+     * Calibrates the temperature of the confidences on noisy copies of the
+     * digit images, so the images the network was trained on do not make it
+     * overconfident. If there are no digit images in the size of the model,
+     * the confidences are not calibrated and a warning is printed.
+     * 
+     * @param model The network used for classification.
+     * @param kernel Classifies the images of the model.
+     * @return The calibrated temperature, or 1 without suitable images.
+     */
+    private static double calibrate(Model model, Kernel kernel) {
+        Samples samples;
+        try {
+            samples = Samples.load(model.width, model.height);
+        } catch (IOException ex) {
+            System.err.println("Warning: confidences are not calibrated, no digit images of size " + model.width + "x"
+                    + model.height + " (set neuralnetwork.image.dir): " + ex.getMessage());
+            return 1.0;
+        }
+        Samples noisy = samples.withNoise(BatchClassifier.CALIBRATION_INPUTS, new Random(1));
+        return Ranking.calibrate(kernel, noisy.bits, noisy.digits);
+    }
+    
+    /**
+     * Classifies all BMP images below the given directory.
+     * 
+     * @param directory The directory to search for images.
+     * @param out Receives one result line per image.
+     * @return The exit status, zero if all images were classified.
+     * @throws IOException If the directory could not be read or a result could not be written.
+     */
+    public int classify(Path directory, Writer out) throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(directory)) {
+            files = stream.filter(p -> p.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".bmp") && Files.isRegularFile(p))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        if (!this.json) {
+            out.write(this.csvHeader());
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+        CompletionService<String> completion = new ExecutorCompletionService<>(pool);
+        AtomicInteger failed = new AtomicInteger();
+        int batches = (files.size() + this.batchSize - 1) / this.batchSize;
+        try {
+            int submitted = 0;
+            int completed = 0;
+            while (completed < batches) {
+                while (submitted < batches && submitted - completed < this.threads * BatchClassifier.QUEUE_PER_THREAD) {
+                    int first = submitted++ * this.batchSize;
+                    completion.submit(this.task(files.subList(first, Math.min(first + this.batchSize, files.size())), failed));
+                }
+                try {
+                    out.write(completion.take().get());
+                } catch (ExecutionException ex) {
+                    System.err.println("Error: " + ex.getCause().getMessage());
+                    failed.incrementAndGet();
+                }
+                completed++;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return 1;
+        } finally {
+            pool.shutdownNow();
+            out.flush();
+        }
+        return failed.get() == 0 ? 0 : 1;
+    }
+    
+    /**
+     * Creates the task decoding and classifying a batch of images.
+     * Images that cannot be read are reported and skipped.
+     * 
+     * @param files The image files.
+     * @param failed Counts the images that could not be read.
+     * @return The task returning the result lines.
+     */
+    private Callable<String> task(List<Path> files, AtomicInteger failed) {
+        return () -> {
+            long[] bits = InputBits.create(this.kernel.inputs());
+            Ranking ranking = this.top > 0 ? new Ranking(this.kernel.outputs(), this.top, this.temperature) : null;
+            double[] scores = ranking != null ? ranking.scores() : new double[this.kernel.outputs()];
+            StringBuilder lines = new StringBuilder();
+            for (Path file : files) {
+                try {
+                    BmpDecoder decoder = BmpDecoder.open(file);
+                    if (decoder.getWidth() != this.width || decoder.getHeight() != this.height) {
+                        throw new IOException("unexpected image size");
+                    }
+                    decoder.decodeBits(bits);
+                } catch (IOException | RuntimeException ex) {
+                    System.err.println("Error: " + file + ": " + ex.getMessage());
+                    failed.incrementAndGet();
+                    continue;
+                }
+                int digit;
+                if (ranking != null) {
+                    this.kernel.rank(bits, ranking);
+                    digit = ranking.get(0);
+                } else {
+                    digit = this.kernel.classify(bits, scores);
+                }
+                lines.append(this.json ? this.jsonLine(file, digit, scores, ranking) : this.csvLine(file, digit, scores, ranking));
+            }
+            return lines.toString();
+        };
+    }
+    
+    /**
+     * Creates the header line of the CSV output.
+     * 
+     * @return The header line.
+     */
+    private String csvHeader() {
+        StringBuilder line = new StringBuilder("file,digit");
+        for (int i = 1; i <= this.top; i++) {
+            line.append(",top").append(i).append(",confidence").append(i);
+        }
+        for (int i = 0; i < this.kernel.outputs(); i++) {
+            line.append(",score").append(i);
+        }
+        return line.append('\n').toString();
+    }
+    
+    /**
+     * Formats a result as CSV line.
+     */
+    private String csvLine(Path file, int digit, double[] scores, Ranking ranking) {
+        String name = file.toString();
+        if (name.contains(",") || name.contains("\"") || name.contains("\n")) {
+            name = '"' + name.replace("\"", "\"\"") + '"';
+        }
+        StringBuilder line = new StringBuilder(name).append(',').append(digit);
+        for (int i = 0; ranking != null && i < ranking.size(); i++) {
+            line.append(',').append(ranking.get(i)).append(',').append(ranking.confidence(i));
+        }
+        for (double score : scores) {
+            line.append(',').append(score);
+        }
+        return line.append('\n').toString();
+    }
+    
+    /**
+     * Formats a result as JSON line.
+     */
+    private String jsonLine(Path file, int digit, double[] scores, Ranking ranking) {
+        StringBuilder line = new StringBuilder("{\"file\":\"");
+        for (char c : file.toString().toCharArray()) {
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append("\",\"digit\":").append(digit);
+        if (ranking != null) {
+            line.append(",\"top\":[");
+            for (int i = 0; i < ranking.size(); i++) {
+                line.append(i > 0 ? "," : "").append("{\"digit\":").append(ranking.get(i))
+                        .append(",\"confidence\":").append(ranking.confidence(i)).append('}');
+            }
+            line.append(']');
+        }
+        line.append(",\"scores\":[");
+        for (int i = 0; i < scores.length; i++) {
+            line.append(i > 0 ? "," : "").append(scores[i]);
+        }
+        return line.append("]}\n").toString();
+    }
+    
+}
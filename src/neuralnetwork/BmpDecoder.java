@@ -0,0 +1,317 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+import neuralnetwork.network.InputBits;
+
+/**
+ * Decodes uncompressed BMP images directly from a {@link ByteBuffer}.
+ * 
+ * Images with 24 or 32 bits per pixel as well as palette images with 1, 4 or 8
+ * bits per pixel are supported.
+ * 
+ * Pixels are returned row by row, starting at the top left corner, in the same
+ * format as {@link BufferedImage#getRGB(int, int)}. The input bits can be
+ * produced without converting the pixels to RGB values first.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public final class BmpDecoder {
+    
+    /**
+     * The buffer containing the whole file.
+     */
+    private final ByteBuffer data;
+    
+    /**
+     * The width of the image in pixels.
+     */
+    private final int width;
+    
+    /**
+     * The height of the image in pixels.
+     */
+    private final int height;
+    
+    /**
+     * The number of bits per pixel.
+     */
+    private final int bitsPerPixel;
+    
+    /**
+     * The RGB values of the color table, null for images without palette.
+     */
+    private final int[] palette;
+    
+    /**
+     * The number of bytes per row, including padding.
+     */
+    private final int stride;
+    
+    /**
+     * The position of the top row's first pixel.
+     */
+    private final int top;
+    
+    /**
+     * The distance from one row to the next one below, negative for bottom-up images.
+     */
+    private final int rowStep;
+    
+    /**
+     * Parses the header of a BMP image.
+     * 
+     * @param data The buffer containing the whole file. Its position is ignored.
+     * @throws IOException If the data is no supported BMP image.
+     */
+    public BmpDecoder(ByteBuffer data) throws IOException {
+        this.data = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (this.data.limit() < 54 || this.data.get(0) != 'B' || this.data.get(1) != 'M') {
+            throw new IOException("Not a BMP image");
+        }
+        int offset = this.data.getInt(10);
+        int headerSize = this.data.getInt(14);
+        this.width = this.data.getInt(18);
+        int rows = this.data.getInt(22);
+        this.bitsPerPixel = this.data.getShort(28);
+        int compression = this.data.getInt(30);
+        if (headerSize < 40 || compression != 0 || Arrays.binarySearch(new int[]{1, 4, 8, 24, 32}, this.bitsPerPixel) < 0) {
+            throw new IOException("Unsupported BMP format");
+        }
+        if (this.bitsPerPixel <= 8) {
+            int colors = this.data.getInt(46);
+            this.palette = new int[1 << this.bitsPerPixel];
+            int table = 14 + headerSize;
+            if (colors <= 0 || colors > this.palette.length) {
+                colors = this.palette.length;
+            }
+            if (table + 4 * colors > this.data.limit()) {
+                throw new IOException("Corrupt BMP image");
+            }
+            for (int i = 0; i < colors; i++) {
+                this.palette[i] = 0xFF000000 | (this.data.getInt(table + 4 * i) & 0xFFFFFF);
+            }
+        } else {
+            this.palette = null;
+        }
+        this.height = Math.abs(rows);
+        this.stride = ((this.width * this.bitsPerPixel + 31) >>> 5) << 2;
+        if (this.width <= 0 || this.height == 0 || offset < 0 || (long) offset + (long) this.stride * this.height > this.data.limit()) {
+            throw new IOException("Corrupt BMP image");
+        }
+        if (rows > 0) {
+            this.top = offset + (this.height - 1) * this.stride;
+            this.rowStep = -this.stride;
+        } else {
+            this.top = offset;
+            this.rowStep = this.stride;
+        }
+    }
+    
+    /**
+     * Maps a BMP file into memory and parses its header.
+     * 
+     * @param file The file to decode.
+     * @return The decoder.
+     * @throws IOException If the file could not be read or is no supported BMP image.
+     */
+    public static BmpDecoder open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new BmpDecoder(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+    
+    /**
+     * Reads a BMP image from a class path resource into a heap buffer.
+     * 
+     * @param name The resource name, relative to this class.
+     * @return The buffer containing the whole file.
+     * @throws IOException If the resource could not be read.
+     */
+    public static ByteBuffer readResource(String name) throws IOException {
+        try (InputStream in = BmpDecoder.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("Resource not found: " + name);
+            }
+            return ByteBuffer.wrap(in.readAllBytes());
+        }
+    }
+    
+    /**
+     * Returns the width of the image.
+     * @return The width in pixels.
+     */
+    public int getWidth() {
+        return this.width;
+    }
+    
+    /**
+     * Returns the height of the image.
+     * @return The height in pixels.
+     */
+    public int getHeight() {
+        return this.height;
+    }
+    
+    /**
+     * Decodes all pixels into RGB values, row by row from the top.
+     * 
+     * @param pixels Receives {@code width * height} opaque RGB values.
+     */
+    public void decodeRgb(int[] pixels) {
+        if (this.palette != null) {
+            int count = 0;
+            for (int y = 0, row = this.top; y < this.height; y++, row += this.rowStep) {
+                for (int x = 0; x < this.width; x++) {
+                    pixels[count++] = this.palette[this.index(row, x)];
+                }
+            }
+            return;
+        }
+        int bytesPerPixel = this.bitsPerPixel >>> 3;
+        int count = 0;
+        for (int y = 0, row = this.top; y < this.height; y++, row += this.rowStep) {
+            for (int x = 0, p = row; x < this.width; x++, p += bytesPerPixel) {
+                pixels[count++] = 0xFF000000
+                        | (this.data.get(p + 2) & 0xFF) << 16
+                        | (this.data.get(p + 1) & 0xFF) << 8
+                        | (this.data.get(p) & 0xFF);
+            }
+        }
+    }
+    
+    /**
+     * Decodes all pixels into input bits, row by row from the top.
+     * Every pixel that is not white activates its input neuron, like in
+     * {@link InputBits#fromPixels(int[], long[])}.
+     * 
+     * @param bits Receives the packed input bits for {@code width * height} inputs.
+     */
+    public void decodeBits(long[] bits) {
+        Arrays.fill(bits, 0L);
+        if (this.palette != null) {
+            int count = 0;
+            for (int y = 0, row = this.top; y < this.height; y++, row += this.rowStep) {
+                for (int x = 0; x < this.width; x++, count++) {
+                    if (this.palette[this.index(row, x)] < -1) {
+                        bits[count >>> 6] |= 1L << count;
+                    }
+                }
+            }
+            return;
+        }
+        int bytesPerPixel = this.bitsPerPixel >>> 3;
+        int count = 0;
+        for (int y = 0, row = this.top; y < this.height; y++, row += this.rowStep) {
+            for (int x = 0, p = row; x < this.width; x++, p += bytesPerPixel, count++) {
+                if ((this.data.get(p) & this.data.get(p + 1) & this.data.get(p + 2)) != (byte) 0xFF) {
+                    bits[count >>> 6] |= 1L << count;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Reads the color table index of a pixel in a palette image.
+     * 
+     * @param row The position of the pixel's row.
+     * @param x The horizontal position of the pixel.
+     * @return The color table index.
+     */
+    private int index(int row, int x) {
+        int bit = x * this.bitsPerPixel;
+        int value = this.data.get(row + (bit >>> 3)) & 0xFF;
+        return (value >>> (8 - this.bitsPerPixel - (bit & 7))) & ((1 << this.bitsPerPixel) - 1);
+    }
+    
+    /**
+     * Verifies the decoder against {@link ImageIO} on all bundled images and
+     * compares the time needed per image.
+     * 
+     * @param args Not used.
+     * @throws IOException If a bundled image could not be read.
+     */
+    public static void main(String[] args) throws IOException {
+        int mismatches = 0;
+        ByteBuffer[] files = new ByteBuffer[10 * Samples.VARIANTS];
+        for (int variant = 0, count = 0; variant < Samples.VARIANTS; variant++) {
+            for (int digit = 0; digit < 10; digit++, count++) {
+                String name = "img/digit" + digit + "-" + variant + ".bmp";
+                files[count] = BmpDecoder.readResource(name);
+                BufferedImage image = ImageIO.read(BmpDecoder.class.getResource(name));
+                BmpDecoder decoder = new BmpDecoder(files[count]);
+                int[] expected = new int[image.getWidth() * image.getHeight()];
+                image.getRGB(0, 0, image.getWidth(), image.getHeight(), expected, 0, image.getWidth());
+                long[] expectedBits = InputBits.create(expected.length);
+                InputBits.fromPixels(expected, expectedBits);
+                int[] pixels = new int[decoder.getWidth() * decoder.getHeight()];
+                long[] bits = InputBits.create(pixels.length);
+                decoder.decodeRgb(pixels);
+                decoder.decodeBits(bits);
+                if (!Arrays.equals(expected, pixels) || !Arrays.equals(expectedBits, bits)) {
+                    System.out.println("Mismatch: " + name);
+                    mismatches++;
+                }
+            }
+        }
+        System.out.println(files.length + " images checked, " + mismatches + " mismatches");
+        long[] bits = InputBits.create(Main.IMAGE_WIDTH * Main.IMAGE_HEIGHT);
+        long sink = 0;
+        int rounds = 100_000;
+        for (int warmup = 0; warmup < 2; warmup++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                new BmpDecoder(files[i % files.length]).decodeBits(bits);
+                sink += bits[0];
+            }
+            if (warmup == 1) {
+                System.out.printf("BmpDecoder: %.0f ns per image%n", (System.nanoTime() - start) / (double) rounds);
+            }
+        }
+        rounds = 2_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            BufferedImage image = ImageIO.read(BmpDecoder.class.getResource("img/digit" + i % 10 + "-" + i / 10 % Samples.VARIANTS + ".bmp"));
+            sink += image.getRGB(0, 0);
+        }
+        System.out.printf("ImageIO: %.0f ns per image%n", (System.nanoTime() - start) / (double) rounds);
+        if (mismatches > 0 || sink == 42) {
+            System.exit(1);
+        }
+    }
+    
+}
@@ -0,0 +1,277 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import neuralnetwork.network.ModelFile;
+import neuralnetwork.network.WeightSnapshot;
+
+/**
+ * Periodically saves the weights of the neural network without pausing the
+ * training thread.
+ * 
+ * The latest published {@link WeightSnapshot} is handed to a background thread
+ * writing it to disk. Snapshots are immutable, so nothing has to be copied on
+ * the training thread. Checkpoints are written to a
+ * temporary file first and atomically renamed afterwards, so a crash never
+ * leaves a damaged checkpoint behind. Only the newest checkpoints are retained,
+ * and weights that have not been trained since the last checkpoint are not
+ * written again.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public class Checkpointer implements Runnable {
+    
+    /**
+     * The prefix of all checkpoint file names.
+     */
+    private static final String PREFIX = "checkpoint-";
+    
+    /**
+     * The extension of all checkpoint file names.
+     */
+    private static final String EXTENSION = ".nnw";
+    
+    /**
+     * The Main object containing the neural network and logic.
+     */
+    private final Main main;
+    
+    /**
+     * The directory the checkpoints are written to.
+     */
+    private final Path directory;
+    
+    /**
+     * The number of training steps between two checkpoints.
+     * No periodic checkpoints are written if zero.
+     */
+    private final int interval;
+    
+    /**
+     * The number of checkpoints kept on disk.
+     */
+    private final int retain;
+    
+    /**
+     * Snapshots waiting to be written.
+     */
+    private final BlockingQueue<WeightSnapshot> pending = new ArrayBlockingQueue<>(2);
+    
+    /**
+     * The buffer the writer thread copies snapshots into.
+     */
+    private final double[][] buffer;
+    
+    /**
+     * Counts the training steps since the last checkpoint.
+     * Incremented by the training thread and taken by any thread saving a checkpoint.
+     */
+    private final AtomicInteger steps = new AtomicInteger();
+    
+    /**
+     * The sequence number of the next checkpoint file.
+     */
+    private long sequence;
+    
+    /**
+     * Creates a new Checkpointer and starts its writer thread.
+     * 
+     * @param main Contains the neural network to save.
+     * @param directory The directory to write checkpoints to.
+     * @param interval The number of training steps between two checkpoints, or zero.
+     * @param retain The number of checkpoints to keep, at least one.
+     */
+    public Checkpointer(Main main, Path directory, int interval, int retain) {
+        this.main = main;
+        this.directory = directory;
+        this.interval = interval;
+        this.retain = Math.max(1, retain);
+        this.buffer = main.createWeightBuffer();
+        List<Path> existing = this.list();
+        this.sequence = existing.isEmpty() ? 0 : Checkpointer.sequenceOf(existing.get(existing.size() - 1)) + 1;
+        Thread writer = new Thread(this, "Checkpointer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    /**
+     * Creates a Checkpointer configured by system properties.
+     * 
+     * {@code neuralnetwork.checkpoint.dir} sets the directory; no checkpoints
+     * are written unless it is set. {@code neuralnetwork.checkpoint.interval}
+     * sets the number of steps between checkpoints (default 1000) and
+     * {@code neuralnetwork.checkpoint.retain} the number of retained checkpoints (default 3).
+     * 
+     * @param main Contains the neural network to save.
+     * @return The new Checkpointer, or null if checkpoints are disabled.
+     */
+    public static Checkpointer fromSystemProperties(Main main) {
+        String directory = System.getProperty("neuralnetwork.checkpoint.dir");
+        if (directory == null) {
+            return null;
+        }
+        return new Checkpointer(main,
+                Paths.get(directory),
+                Integer.getInteger("neuralnetwork.checkpoint.interval", 1000),
+                Integer.getInteger("neuralnetwork.checkpoint.retain", 3));
+    }
+    
+    /**
+     * Called by the training thread after each step.
+     * Takes a snapshot once the configured interval has passed. If two snapshots
+     * are still waiting to be written, the snapshot is postponed to the next step.
+     */
+    public void stepCompleted() {
+        if (this.steps.incrementAndGet() >= this.interval && this.interval > 0) {
+            this.save(false);
+        }
+    }
+    
+    /**
+     * Queues the latest published weights for writing, unless they have not
+     * been trained since the last checkpoint. Never blocks, so it can be called
+     * on the event dispatch thread.
+     * 
+     * @param replace If true and two snapshots are already waiting, the older
+     *        one is dropped instead of giving up.
+     * @return True if a snapshot was queued, false otherwise.
+     */
+    public boolean save(boolean replace) {
+        int steps = this.steps.getAndSet(0);
+        if (steps == 0) {
+            return false;
+        }
+        WeightSnapshot snapshot = this.main.getSnapshot();
+        boolean queued = this.pending.offer(snapshot);
+        while (!queued && replace) {
+            this.pending.poll();
+            queued = this.pending.offer(snapshot);
+        }
+        if (!queued) {
+            this.steps.addAndGet(steps);
+        }
+        return queued;
+    }
+    
+    /**
+     * Returns the newest checkpoint on disk.
+     * 
+     * @return The newest checkpoint file, or null if there is none.
+     */
+    public Path latest() {
+        List<Path> checkpoints = this.list();
+        return checkpoints.isEmpty() ? null : checkpoints.get(checkpoints.size() - 1);
+    }
+    
+    /**
+     * Writes queued snapshots until the program ends.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            WeightSnapshot snapshot;
+            try {
+                snapshot = this.pending.take();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            snapshot.copyTo(this.buffer);
+            try {
+                this.write(this.buffer);
+            } catch (IOException ex) {
+                this.main.gui.log("Checkpoint konnte nicht gespeichert werden!");
+            }
+        }
+    }
+    
+    /**
+     * Writes a single snapshot and removes checkpoints exceeding the retention limit.
+     * 
+     * @param weights The snapshot to write.
+     * @throws IOException If the checkpoint could not be written.
+     */
+    private void write(double[][] weights) throws IOException {
+        Files.createDirectories(this.directory);
+        String name = String.format("%s%012d", Checkpointer.PREFIX, this.sequence++);
+        Path temporary = this.directory.resolve(name + ".tmp");
+        try {
+            ModelFile.write(this.main.toModel(weights), temporary);
+            Files.move(temporary, this.directory.resolve(name + Checkpointer.EXTENSION), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            Files.deleteIfExists(temporary);
+            throw ex;
+        }
+        List<Path> checkpoints = this.list();
+        for (int i = 0; i < checkpoints.size() - this.retain; i++) {
+            Files.deleteIfExists(checkpoints.get(i));
+        }
+    }
+    
+    /**
+     * Lists all checkpoints on disk, oldest first.
+     * 
+     * @return The checkpoint files.
+     */
+    private List<Path> list() {
+        List<Path> checkpoints = new ArrayList<>();
+        if (!Files.isDirectory(this.directory)) {
+            return checkpoints;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, Checkpointer.PREFIX + "*" + Checkpointer.EXTENSION)) {
+            for (Path path : stream) {
+                checkpoints.add(path);
+            }
+        } catch (IOException ex) {
+            return checkpoints;
+        }
+        Collections.sort(checkpoints);
+        return checkpoints;
+    }
+    
+    /**
+     * Extracts the sequence number from a checkpoint file name.
+     * 
+     * @param checkpoint The checkpoint file.
+     * @return The sequence number.
+     */
+    private static long sequenceOf(Path checkpoint) {
+        String name = checkpoint.getFileName().toString();
+        return Long.parseLong(name.substring(Checkpointer.PREFIX.length(), name.length() - Checkpointer.EXTENSION.length()));
+    }
+}
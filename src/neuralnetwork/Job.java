@@ -0,0 +1,229 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A long running task started by a {@link JobService}, like training or testing
+ * the network.
+ * 
+ * The task calls {@link #proceed()} between its steps. This is where the job is
+ * paused and where a cancellation is noticed. Cancelling also interrupts the
+ * task, so it does not have to finish a pending sleep first.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public final class Job {
+    
+    /**
+     * The work performed by a {@link Job}.
+     */
+    public interface Task {
+        
+        /**
+         * Runs the task until {@link Job#proceed()} returns false.
+         * 
+         * @param job The job running the task.
+         * @throws Exception If the task fails.
+         */
+        void run(Job job) throws Exception;
+        
+    }
+    
+    /**
+     * Completed when the task has returned.
+     */
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    
+    /**
+     * Guards {@code paused} and {@code thread}.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    
+    /**
+     * Signalled when the job is resumed or cancelled.
+     */
+    private final Condition resumed = this.lock.newCondition();
+    
+    /**
+     * Determines whether the job has been paused.
+     */
+    private boolean paused = false;
+    
+    /**
+     * Determines whether the job has been cancelled.
+     */
+    private volatile boolean cancelled = false;
+    
+    /**
+     * The thread running the task, or null if the task is not running.
+     */
+    private Thread thread;
+    
+    /**
+     * Creates a new Job. Jobs are created by a {@link JobService}.
+     */
+    Job() {
+    }
+    
+    /**
+     * Runs the task and completes the job afterwards.
+     * The task is skipped if the job was cancelled before it started, so the
+     * job is completed in any case.
+     * 
+     * @param task The task to run.
+     */
+    void execute(Task task) {
+        this.lock.lock();
+        try {
+            this.thread = Thread.currentThread();
+        } finally {
+            this.lock.unlock();
+        }
+        try {
+            if (!this.cancelled) {
+                task.run(this);
+            }
+            this.completion.complete(null);
+        } catch (InterruptedException ex) {
+            this.completion.complete(null);
+        } catch (Exception | Error ex) {
+            this.completion.completeExceptionally(ex);
+        } finally {
+            this.lock.lock();
+            try {
+                this.thread = null;
+            } finally {
+                this.lock.unlock();
+            }
+            // A cancellation may have interrupted the thread after the task returned
+            Thread.interrupted();
+        }
+    }
+    
+    /**
+     * Called by the task between two steps.
+     * Waits while the job is paused.
+     * 
+     * @return True if the task should perform the next step, false if it should return.
+     */
+    public boolean proceed() {
+        if (this.cancelled || Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+        this.lock.lock();
+        try {
+            while (this.paused && !this.cancelled) {
+                this.resumed.await();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            this.lock.unlock();
+        }
+        return !this.cancelled;
+    }
+    
+    /**
+     * Pauses the job at the next call of {@link #proceed()}.
+     */
+    public void pause() {
+        this.lock.lock();
+        try {
+            this.paused = true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    
+    /**
+     * Resumes a paused job.
+     */
+    public void resume() {
+        this.lock.lock();
+        try {
+            this.paused = false;
+            this.resumed.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    
+    /**
+     * Stops the job. Returns immediately; use {@link #completion()} to wait for
+     * the task to return.
+     */
+    public void cancel() {
+        this.lock.lock();
+        try {
+            this.cancelled = true;
+            this.paused = false;
+            this.resumed.signalAll();
+            if (this.thread != null) {
+                this.thread.interrupt();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    
+    /**
+     * Checks whether the job is paused.
+     * @return True if paused.
+     */
+    public boolean isPaused() {
+        this.lock.lock();
+        try {
+            return this.paused;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    
+    /**
+     * Checks whether the job has been cancelled.
+     * @return True if cancelled.
+     */
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+    
+    /**
+     * Returns a future completed when the task has returned, whether cancelled or not.
+     * It is completed exceptionally if the task failed.
+     * 
+     * @return The completion future.
+     */
+    public CompletableFuture<Void> completion() {
+        return this.completion;
+    }
+    
+}
@@ -27,11 +27,16 @@
 package neuralnetwork;
 
 import neuralnetwork.gui.*;
-import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.DecimalFormat;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Random;
-import javax.imageio.ImageIO;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.ImageIcon;
 import javax.swing.UIManager;
 import neuralnetwork.network.*;
@@ -46,18 +51,49 @@ public final class Main {
 
     /**
      * Defines the width of the input bitmaps.
+     * Can be changed by the system property {@code neuralnetwork.image.width}.
      */
-    public static final int IMAGE_WIDTH = 15;
+    public static final int IMAGE_WIDTH = Integer.getInteger("neuralnetwork.image.width", 15);
 
     /**
      * Defines the height of the input bitmaps.
+     * Can be changed by the system property {@code neuralnetwork.image.height}.
      */
-    public static final int IMAGE_HEIGHT = 15;
+    public static final int IMAGE_HEIGHT = Integer.getInteger("neuralnetwork.image.height", 15);
+
+    /**
+     * The directory containing the digit images, or null to use the bundled ones.
+     * Can be set by the system property {@code neuralnetwork.image.dir}.
+     */
+    private static final String IMAGE_DIRECTORY = System.getProperty("neuralnetwork.image.dir");
+
+    /**
+     * Extracts features from the input bitmaps, or null if the input neurons
+     * receive the pixels directly.
+     */
+    private final ConvolutionFrontEnd frontEnd = ConvolutionFrontEnd.fromSystemProperties(Main.IMAGE_WIDTH, Main.IMAGE_HEIGHT);
 
     /**
      * Contains the input neurons receiving data from outside the network.
      */
-    private final Neuron[] inputNeurons = new Neuron[Main.IMAGE_WIDTH * Main.IMAGE_HEIGHT];
+    private final Neuron[] inputNeurons = new Neuron[this.frontEnd == null
+            ? Main.IMAGE_WIDTH * Main.IMAGE_HEIGHT : this.frontEnd.outputs()];
+
+    /**
+     * The packed bits of the current image, used with the front end.
+     */
+    private final long[] imageBits = InputBits.create(Main.IMAGE_WIDTH * Main.IMAGE_HEIGHT);
+
+    /**
+     * The packed signals of the input neurons, used with the front end.
+     */
+    private final long[] featureBits = InputBits.create(this.inputNeurons.length);
+
+    /**
+     * The packed bits of an image and of its features, per classifying thread.
+     */
+    private final ThreadLocal<long[][]> classifyBits = ThreadLocal.withInitial(() -> new long[][] {
+        InputBits.create(Main.IMAGE_WIDTH * Main.IMAGE_HEIGHT), InputBits.create(this.inputNeurons.length)});
 
     /**
      * Contains the output neurons giving data to the outside.
@@ -65,25 +101,47 @@ public final class Main {
     private final Neuron[] outputNeurons = new Neuron[10];
 
     /**
-     * The image currently being processed.
+     * The latest published weights of the output neurons.
+     * Replaced after every training step, so classifying threads never read
+     * the {@link Connection}s being trained.
      */
-    public BufferedImage image;
+    private volatile WeightSnapshot snapshot;
 
     /**
-     * The delay time between steps.
-     * Can be modified using the GUI.
+     * Caches the results of {@link #classify(int[], double[])}, or null if disabled.
      */
-    public int delay;
+    public final ResultCache cache = ResultCache.fromSystemProperties();
 
     /**
-     * Determines whether the network should continue the training process.
+     * The contents of the image files already read, by file name.
      */
-    public boolean training = false;
+    private final Map<String, ByteBuffer> imageFiles = new ConcurrentHashMap<>();
 
     /**
-     * Determines whether the network should continue the test process.
+     * The seed of the random noise, set by {@code neuralnetwork.seed} or chosen at startup.
      */
-    public boolean testing = false;
+    public final long seed = Long.getLong("neuralnetwork.seed", System.nanoTime());
+
+    /**
+     * Generates the random noise added to the images.
+     */
+    private final Random random = new Random(this.seed);
+
+    /**
+     * The RGB values of the image currently being processed.
+     */
+    public int[] pixels;
+
+    /**
+     * The delay time between steps.
+     * Can be modified using the GUI.
+     */
+    public int delay;
+
+    /**
+     * Runs the training and test processes.
+     */
+    public final JobService jobs = new JobService();
 
     /**
      * Counts the images already processed.
@@ -100,13 +158,28 @@ public final class Main {
      */
     public GUI gui;
 
+    /**
+     * The {@link Checkpointer} periodically saving the network's weights, or null if disabled.
+     */
+    public Checkpointer checkpointer;
+
+    /**
+     * Records the training steps, or null if disabled.
+     */
+    public TrainingJournal journal;
+
     /**
      * Called at program start. Creates a new {@code Main} object containing the core
      * program logic.
+     * If arguments are given, a {@link BatchClassifier} is run instead, without
+     * opening a {@link GUI}.
      *
      * @param args the command line arguments
      */
     public static void main(String[] args) {
+        if (args.length > 0) {
+            System.exit(BatchClassifier.run(args));
+        }
         try {
             // Set System L&F
             UIManager.setLookAndFeel(
@@ -124,36 +197,49 @@ public final class Main {
     public Main() {
         
         this.createNetwork();
+        this.checkpointer = Checkpointer.fromSystemProperties(this);
+        this.journal = TrainingJournal.fromSystemProperties(this, this.seed);
         
-        int[] pixels = this.getPixels("img/digit0-0.bmp");
-        image = this.getImageFromPixels(pixels);
+        this.pixels = this.getPixels("img/digit0-0.bmp", 0);
 
         this.gui = new GUI(this);
         this.gui.setIconImage(new ImageIcon(this.getClass().getResource("img/icon.png")).getImage());
         
-        gui.setImage(image);
+        this.gui.setPixels(this.pixels);
         this.gui.log("Program gestartet");
+        if (this.checkpointer != null && Boolean.getBoolean("neuralnetwork.checkpoint.restore")) {
+            this.restore(this.checkpointer.latest());
+        }
         this.gui.log("Bereit" + System.lineSeparator());
     }
 
     /**
-     * Reads the pixels from a given image file.
-     * Also adds random color pixels with a chance of 10 percent each.
+     * Reads the pixels from a given image file, row by row from the top.
+     * The file is read from the image directory if one is set.
+     * Above difficulty 0, also adds random color pixels with a chance of 10
+     * percent each, drawn from a generator with a known {@link #seed}.
      *
      * @param filename The image file to read.
+     * @param difficulty The difficulty the image is loaded with.
      * @return An array of integer RGB values.
      */
-    public int[] getPixels(String filename) {
+    public int[] getPixels(String filename, int difficulty) {
         int[] pixels = new int[Main.IMAGE_HEIGHT * Main.IMAGE_WIDTH];
-        Random rand = new Random();
         try {
-            image = ImageIO.read(getClass().getResource(filename));
-            int count = 0;
-            for (int i = 0; i < image.getHeight(); i++) {
-                for (int j = 0; j < image.getWidth(); j++) {
-                    pixels[count++] = image.getRGB(i, j);
-                    if (this.gui != null && this.gui.getDifficulty() > 0 && rand.nextInt(10) == 0) {
-                        pixels[count - 1] = rand.nextInt(16777216) - 16777216; // RGB range
+            ByteBuffer file = this.imageFiles.get(filename);
+            if (file == null) {
+                file = Main.readImage(filename);
+                this.imageFiles.put(filename, file);
+            }
+            BmpDecoder decoder = new BmpDecoder(file);
+            if (decoder.getWidth() != Main.IMAGE_WIDTH || decoder.getHeight() != Main.IMAGE_HEIGHT) {
+                throw new IOException("Unexpected image size");
+            }
+            decoder.decodeRgb(pixels);
+            if (difficulty > 0) {
+                for (int i = 0; i < pixels.length; i++) {
+                    if (this.random.nextInt(10) == 0) {
+                        pixels[i] = this.random.nextInt(16777216) - 16777216; // RGB range
                     }
                 }
             }
@@ -164,20 +250,18 @@ public final class Main {
     }
 
     /**
-     * Converts an array of RGB values into an {@link BufferedImage}.
+     * Reads an image file from the image directory if one is set, otherwise
+     * from the bundled images.
      *
-     * @param pixels An array of integer RGB values.
-     * @return A {@link BufferedImage} representing the array.
-     */
-    public BufferedImage getImageFromPixels(int[] pixels) {
-        BufferedImage img = new BufferedImage(Main.IMAGE_WIDTH, Main.IMAGE_HEIGHT, BufferedImage.TYPE_INT_RGB);
-        int c = 0;
-        for (int i = 0; i < Main.IMAGE_WIDTH; i++) {
-            for (int j = 0; j < Main.IMAGE_HEIGHT; j++) {
-                img.setRGB(i, j, pixels[c++]);
-            }
+     * @param filename The bundled image file, relative to this class.
+     * @return The content of the file.
+     * @throws IOException If the file could not be read.
+     */
+    static ByteBuffer readImage(String filename) throws IOException {
+        if (Main.IMAGE_DIRECTORY == null) {
+            return BmpDecoder.readResource(filename);
         }
-        return img;
+        return ByteBuffer.wrap(Files.readAllBytes(Paths.get(Main.IMAGE_DIRECTORY).resolve(Paths.get(filename).getFileName())));
     }
 
     /**
@@ -198,14 +282,224 @@ public final class Main {
             }
             this.outputNeurons[i].connections = connections;
         }
+        this.publishWeights();
+    }
+
+    /**
+     * Returns the front end extracting features from the images.
+     *
+     * @return The front end, or null if the pixels are passed to the network directly.
+     */
+    public ConvolutionFrontEnd getFrontEnd() {
+        return this.frontEnd;
+    }
+
+    /**
+     * Returns the latest published weights.
+     *
+     * @return The current snapshot.
+     */
+    public WeightSnapshot getSnapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * Publishes the weights of all {@link Connection}s as a new snapshot.
+     */
+    private synchronized void publishWeights() {
+        double[][] weights = this.createWeightBuffer();
+        for (int i = 0; i < this.outputNeurons.length; i++) {
+            Connection[] connections = this.outputNeurons[i].connections;
+            for (int j = 0; j < connections.length; j++) {
+                weights[i][j] = connections[j].getWeight();
+            }
+        }
+        WeightSnapshot previous = this.snapshot;
+        this.snapshot = WeightSnapshot.copyOf(weights, previous == null ? 0 : previous.version + 1);
+    }
+
+    /**
+     * Publishes a new snapshot in which only the weights of a single output
+     * neuron have changed.
+     *
+     * @param output The index of the output neuron.
+     */
+    private synchronized void publishRow(int output) {
+        Connection[] connections = this.outputNeurons[output].connections;
+        double[] row = new double[connections.length];
+        for (int j = 0; j < connections.length; j++) {
+            row[j] = connections[j].getWeight();
+        }
+        this.snapshot = this.snapshot.withRow(output, row);
+    }
+
+    /**
+     * Creates an array large enough to hold all weights of the network.
+     *
+     * @return An empty array with one row per output neuron.
+     */
+    public double[][] createWeightBuffer() {
+        return new double[this.outputNeurons.length][this.inputNeurons.length];
+    }
+
+    /**
+     * Copies the latest published weights into the given array.
+     * Can be called by any thread.
+     *
+     * @param weights An array created by {@link #createWeightBuffer()}.
+     */
+    public void copyWeights(double[][] weights) {
+        this.snapshot.copyTo(weights);
+    }
+
+    /**
+     * Replaces the weights of all {@link Connection}s by the given values.
+     * The weights are recorded in the {@link TrainingJournal}, so the
+     * following steps can be replayed.
+     *
+     * @param weights The new weights, one row per output neuron.
+     */
+    public void loadWeights(double[][] weights) {
+        for (int i = 0; i < this.outputNeurons.length; i++) {
+            Connection[] connections = this.outputNeurons[i].connections;
+            for (int j = 0; j < connections.length; j++) {
+                connections[j].setWeight(weights[i][j]);
+            }
+        }
+        this.publishWeights();
+        if (this.journal != null) {
+            try {
+                this.journal.recordLoad(weights);
+            } catch (IOException ex) {
+                this.gui.log("Journal konnte nicht geschrieben werden!");
+                this.journal = null;
+            }
+        }
+    }
+
+    /**
+     * Describes the network with the given weights as a {@link Model}.
+     *
+     * @param weights The weights, one row per output neuron.
+     * @return The model, sharing the weights array.
+     */
+    public Model toModel(double[][] weights) {
+        return new Model(Main.IMAGE_WIDTH, Main.IMAGE_HEIGHT, this.frontEnd, weights);
+    }
+
+    /**
+     * Creates a {@link Kernel} classifying images with the latest published weights.
+     * The kernel is independent of the network and can be used by other threads.
+     *
+     * @return The kernel, not affected by further training.
+     */
+    public Kernel createKernel() {
+        WeightSnapshot weights = this.snapshot;
+        return this.frontEnd == null ? weights : this.frontEnd.attach(weights);
+    }
+
+    /**
+     * Classifies an image with the latest published weights.
+     * Can be called by any thread, also while the network is being trained.
+     * Results are reused from the {@link ResultCache} if one is enabled.
+     *
+     * @param pixels Array of integer RGB values.
+     * @param scores Receives the signal of each output neuron.
+     * @return The recognized number.
+     */
+    public int classify(int[] pixels, double[] scores) {
+        WeightSnapshot weights = this.snapshot;
+        long[][] buffers = this.classifyBits.get();
+        long[] bits = buffers[0];
+        InputBits.fromPixels(pixels, bits);
+        if (this.cache != null) {
+            int cached = this.cache.get(weights.version, bits, scores);
+            if (cached >= 0) {
+                return cached;
+            }
+        }
+        long[] input = bits;
+        if (this.frontEnd != null) {
+            input = buffers[1];
+            this.frontEnd.transform(bits, input);
+        }
+        int highest = weights.classify(input, scores);
+        if (this.cache != null) {
+            this.cache.put(weights.version, bits, highest, scores);
+        }
+        return highest;
+    }
+
+    /**
+     * Ranks the output neurons for an image with the latest published weights.
+     * Can be called by any thread, also while the network is being trained.
+     * On a hit in the {@link ResultCache}, the cached signals are ranked.
+     * Apart from the cache, nothing is allocated.
+     *
+     * @param pixels Array of integer RGB values.
+     * @param ranking Receives the signals, the strongest output neurons and their confidences.
+     * @return The recognized number.
+     */
+    public int rank(int[] pixels, Ranking ranking) {
+        WeightSnapshot weights = this.snapshot;
+        long[][] buffers = this.classifyBits.get();
+        long[] bits = buffers[0];
+        InputBits.fromPixels(pixels, bits);
+        if (this.cache != null && this.cache.get(weights.version, bits, ranking.scores()) >= 0) {
+            ranking.rankScores();
+            return ranking.get(0);
+        }
+        long[] input = bits;
+        if (this.frontEnd != null) {
+            input = buffers[1];
+            this.frontEnd.transform(bits, input);
+        }
+        weights.rank(input, ranking);
+        if (this.cache != null) {
+            this.cache.put(weights.version, bits, ranking.get(0), ranking.scores());
+        }
+        return ranking.get(0);
+    }
+
+    /**
+     * Loads the weights stored in a checkpoint.
+     *
+     * @param checkpoint The checkpoint file to load. Nothing happens if null.
+     */
+    public void restore(Path checkpoint) {
+        if (checkpoint == null) {
+            return;
+        }
+        try {
+            Model model = ModelFile.read(checkpoint);
+            if (model.width != Main.IMAGE_WIDTH || model.height != Main.IMAGE_HEIGHT || !Objects.equals(model.frontEnd, this.frontEnd)
+                    || model.weights.length != this.outputNeurons.length || model.weights[0].length != this.inputNeurons.length) {
+                this.gui.log("Checkpoint passt nicht zum Netz!");
+                return;
+            }
+            this.loadWeights(model.weights);
+            this.gui.log("Checkpoint geladen: " + checkpoint.getFileName());
+        } catch (IOException ex) {
+            this.gui.log("Checkpoint konnte nicht gelesen werden!");
+        }
     }
 
     /**
      * Creates {@link Neuron} objects related to the given color values.
+     * If a front end is used, its features are passed to the input neurons instead.
+     * The signals are also kept as input bits for the {@link TrainingJournal}.
      *
      * @param pixels Array of integer RGB values for the input neurons.
      */
     private void fillInputNeurons(int[] pixels) {
+        InputBits.fromPixels(pixels, this.imageBits);
+        if (this.frontEnd != null) {
+            this.frontEnd.transform(this.imageBits, this.featureBits);
+            for (int i = 0; i < this.inputNeurons.length; i++) {
+                this.inputNeurons[i].setSignal(InputBits.get(this.featureBits, i) ? 1.0 : 0.0);
+            }
+            return;
+        }
         for (int i = 0; i < this.inputNeurons.length; i++) {
             if (pixels[i] < -1) {
                 this.inputNeurons[i].setSignal(1.0);
@@ -217,7 +511,9 @@ public final class Main {
 
     /**
      * Performs a single step, processing an image file containing a number.
-     * Also trains the neural network by adjusting the {@link Connection}s' weights.
+     * Also trains the neural network by adjusting the {@link Connection}s' weights
+     * and publishes the changed row as a new snapshot. Without training, the image
+     * is classified with the latest snapshot instead of the {@link Neuron}s.
      * Uses the difficulty selected in the {@link GUI}.
      * 
      * @param digit The digit to process. Image file is loaded automatically.
@@ -225,8 +521,13 @@ public final class Main {
      * @return The recognized number, no matter if correct or not.
      */
     public int performSingleStep(int digit, boolean training) {
-        int[] pixels = this.getPixels("img/digit" + digit + "-" + this.gui.getDifficulty() + ".bmp");
-        this.image = this.getImageFromPixels(pixels);
+        int difficulty = this.gui.getDifficulty();
+        int[] pixels = this.getPixels("img/digit" + digit + "-" + difficulty + ".bmp", difficulty);
+        this.pixels = pixels;
+        if (!training) {
+            int highest = this.classify(pixels, new double[this.outputNeurons.length]);
+            return this.finishStep(digit, highest);
+        }
         this.fillInputNeurons(pixels);
         int highest = 0;
         for (Neuron out : this.outputNeurons) {
@@ -238,15 +539,35 @@ public final class Main {
             }
         }
         boolean correct = highest == digit;
-        if (training) {
-            for (Connection c : this.outputNeurons[digit].connections) {
-                if (correct) {
-                    c.increaseWeight(Connection.INCREASE_SUCCESS * c.origin.getSignal());
-                } else {
-                    c.increaseWeight(Connection.INCREASE_FAILURE * c.origin.getSignal());
-                }
+        for (Connection c : this.outputNeurons[digit].connections) {
+            if (correct) {
+                c.increaseWeight(Connection.INCREASE_SUCCESS * c.origin.getSignal());
+            } else {
+                c.increaseWeight(Connection.INCREASE_FAILURE * c.origin.getSignal());
+            }
+        }
+        this.publishRow(digit);
+        if (this.journal != null) {
+            try {
+                this.journal.record(digit, difficulty, highest, this.frontEnd == null ? this.imageBits : this.featureBits);
+            } catch (IOException ex) {
+                this.gui.log("Journal konnte nicht geschrieben werden!");
+                this.journal = null;
             }
         }
+        return this.finishStep(digit, highest);
+    }
+
+    /**
+     * Counts a processed image, waits for the configured delay and logs the
+     * recognition rate.
+     *
+     * @param digit The digit shown on the image.
+     * @param highest The recognized number.
+     * @return The recognized number.
+     */
+    private int finishStep(int digit, int highest) {
+        boolean correct = highest == digit;
         this.totalSteps++;
         if (correct) {
             this.correctSteps++;
@@ -255,7 +576,8 @@ public final class Main {
         try {
             Thread.sleep(this.delay);
         } catch (InterruptedException ex) {
-            this.gui.log("Netz kann nicht verlangsamt werden");
+            // The job was cancelled, Job.proceed() will end the loop
+            Thread.currentThread().interrupt();
         }
         this.gui.log(this.correctSteps + " von " + this.totalSteps + " Bildern erkannt (" + new DecimalFormat("#0.00").format((double) this.correctSteps / (double) this.totalSteps * 100) + "%)");
         return highest;
@@ -263,11 +585,23 @@ public final class Main {
 
     /**
      * Completely resets the neural network and {@link GUI}.
+     * Trained weights are saved as a checkpoint before they are discarded.
      */
     public void reset() {
+        if (this.checkpointer != null) {
+            this.checkpointer.save(true);
+        }
         this.correctSteps = 0;
         this.totalSteps = 0;
         this.createNetwork();
+        if (this.journal != null) {
+            try {
+                this.journal.recordReset();
+            } catch (IOException ex) {
+                this.gui.log("Journal konnte nicht geschrieben werden!");
+                this.journal = null;
+            }
+        }
         this.gui.reset();
         this.gui.log("Netz wurde zurückgesetzt");
     }
@@ -0,0 +1,201 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import neuralnetwork.network.DenseKernel;
+import neuralnetwork.network.Kernel;
+import neuralnetwork.network.Model;
+import neuralnetwork.network.ModelFile;
+import neuralnetwork.network.SparseKernel;
+
+/**
+ * Compares magnitude pruned variants of a trained network with the original.
+ * 
+ * For each pruning level, the accuracy on the digit images, the fraction of
+ * removed weights and the classification throughput are reported.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public class PruningReport {
+    
+    /**
+     * Pruning thresholds, relative to the largest weight magnitude.
+     */
+    private static final double[] THRESHOLDS = {0.01, 0.05, 0.1, 0.2, 0.3, 0.5};
+    
+    /**
+     * Numbers of weights kept per output neuron.
+     */
+    private static final int[] TOP_K = {150, 100, 50, 25};
+    
+    /**
+     * The time spent measuring the throughput of each kernel, in nanoseconds.
+     */
+    private static final long MEASURE_TIME = 200_000_000L;
+    
+    /**
+     * The samples used for evaluation.
+     */
+    private final Samples samples;
+    
+    /**
+     * The stream the report is written to.
+     */
+    private final PrintStream out;
+    
+    /**
+     * The throughput of the unpruned network, in samples per second.
+     */
+    private double denseThroughput;
+    
+    /**
+     * Creates a new PruningReport.
+     * 
+     * @param samples The samples used for evaluation.
+     * @param out The stream the report is written to.
+     */
+    public PruningReport(Samples samples, PrintStream out) {
+        this.samples = samples;
+        this.out = out;
+    }
+    
+    /**
+     * Reports all pruning levels for a model file.
+     * 
+     * @param args The model file to evaluate.
+     * @throws IOException If the model or the images could not be read, or the
+     *         images do not have the size of the model.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: PruningReport <model file>");
+            System.exit(2);
+        }
+        Model model = ModelFile.read(Paths.get(args[0]));
+        Samples samples = Samples.load(model.width, model.height);
+        if (model.frontEnd != null) {
+            samples = samples.transform(model.frontEnd);
+        }
+        new PruningReport(samples, System.out).report(model.weights);
+    }
+    
+    /**
+     * Writes the report for the given weights.
+     * 
+     * @param weights The trained weights, one row per output neuron.
+     */
+    public void report(double[][] weights) {
+        double largest = 0.0;
+        for (double[] row : weights) {
+            for (double w : row) {
+                largest = Math.max(largest, Math.abs(w));
+            }
+        }
+        this.out.printf("%-18s %8s %9s %9s %14s %8s%n", "Variante", "Gewichte", "Entfernt", "Erkannt", "Bilder/s", "Faktor");
+        DenseKernel dense = new DenseKernel(weights);
+        this.denseThroughput = this.measure(dense);
+        this.line("dicht", dense.outputs() * dense.inputs(), 0.0, this.accuracy(dense), this.denseThroughput);
+        for (double threshold : PruningReport.THRESHOLDS) {
+            this.line("schwelle " + threshold, SparseKernel.threshold(weights, threshold * largest));
+        }
+        for (int k : PruningReport.TOP_K) {
+            this.line("top-" + k, SparseKernel.topK(weights, k));
+        }
+    }
+    
+    /**
+     * Evaluates a pruned kernel and writes its report line.
+     * 
+     * @param name The name of the pruning level.
+     * @param kernel The pruned kernel.
+     */
+    private void line(String name, SparseKernel kernel) {
+        this.line(name, kernel.nonZeros(), kernel.sparsity(), this.accuracy(kernel), this.measure(kernel));
+    }
+    
+    /**
+     * Writes a single report line.
+     */
+    private void line(String name, int weights, double sparsity, double accuracy, double throughput) {
+        this.out.printf("%-18s %8d %8.2f%% %8.2f%% %14.0f %7.2fx%n", name, weights, sparsity * 100, accuracy * 100, throughput, throughput / this.denseThroughput);
+    }
+    
+    /**
+     * Calculates the fraction of correctly recognized samples.
+     * 
+     * @param kernel The kernel to evaluate.
+     * @return A value between 0 and 1.
+     */
+    private double accuracy(Kernel kernel) {
+        double[] scores = new double[kernel.outputs()];
+        int correct = 0;
+        for (int i = 0; i < this.samples.size(); i++) {
+            if (kernel.classify(this.samples.bits[i], scores) == this.samples.digits[i]) {
+                correct++;
+            }
+        }
+        return (double) correct / this.samples.size();
+    }
+    
+    /**
+     * Measures how many samples a kernel classifies per second.
+     * The kernel is run once without measuring to let the JIT compile it.
+     * 
+     * @param kernel The kernel to measure.
+     * @return The number of samples per second.
+     */
+    private double measure(Kernel kernel) {
+        this.run(kernel);
+        return this.run(kernel);
+    }
+    
+    /**
+     * Classifies all samples repeatedly for the measurement time.
+     * 
+     * @param kernel The kernel to run.
+     * @return The number of samples per second.
+     */
+    private double run(Kernel kernel) {
+        double[] scores = new double[kernel.outputs()];
+        int sink = 0;
+        long count = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (long[] input : this.samples.bits) {
+                sink += kernel.classify(input, scores);
+            }
+            count += this.samples.size();
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < PruningReport.MEASURE_TIME);
+        return sink == -1 ? 0.0 : count * 1e9 / elapsed;
+    }
+    
+}
@@ -0,0 +1,163 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork;
+
+import java.io.IOException;
+import java.util.Random;
+import neuralnetwork.network.ConvolutionFrontEnd;
+import neuralnetwork.network.InputBits;
+
+/**
+ * Holds the digit images as packed input bits.
+ * 
+ * Used to evaluate a network without the {@link neuralnetwork.gui.GUI}.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public final class Samples {
+    
+    /**
+     * The number of image variants bundled per digit.
+     */
+    public static final int VARIANTS = 4;
+    
+    /**
+     * The packed input bits of each sample.
+     */
+    public final long[][] bits;
+    
+    /**
+     * The digit shown by each sample.
+     */
+    public final int[] digits;
+    
+    /**
+     * The number of input bits of each sample.
+     */
+    public final int inputs;
+    
+    /**
+     * Creates a new Samples object.
+     * 
+     * @param bits The packed input bits of each sample.
+     * @param digits The digit shown by each sample.
+     * @param inputs The number of input bits of each sample.
+     */
+    private Samples(long[][] bits, int[] digits, int inputs) {
+        this.bits = bits;
+        this.digits = digits;
+        this.inputs = inputs;
+    }
+    
+    /**
+     * Loads every variant of every digit in the configured image size.
+     * 
+     * @return The loaded samples.
+     * @throws IOException If an image could not be read or has another size.
+     * @see #load(int, int)
+     */
+    public static Samples load() throws IOException {
+        return Samples.load(Main.IMAGE_WIDTH, Main.IMAGE_HEIGHT);
+    }
+    
+    /**
+     * Loads every variant of every digit, from the image directory set by
+     * {@code neuralnetwork.image.dir} or from the bundled images.
+     * 
+     * @param width The expected width of the images.
+     * @param height The expected height of the images.
+     * @return The loaded samples.
+     * @throws IOException If an image could not be read or has another size.
+     */
+    public static Samples load(int width, int height) throws IOException {
+        long[][] bits = new long[10 * Samples.VARIANTS][];
+        int[] digits = new int[bits.length];
+        int count = 0;
+        int inputs = width * height;
+        for (int variant = 0; variant < Samples.VARIANTS; variant++) {
+            for (int digit = 0; digit < 10; digit++) {
+                String name = "img/digit" + digit + "-" + variant + ".bmp";
+                BmpDecoder decoder = new BmpDecoder(Main.readImage(name));
+                if (decoder.getWidth() != width || decoder.getHeight() != height) {
+                    throw new IOException(name + ": image size " + decoder.getWidth() + "x" + decoder.getHeight()
+                            + " does not match " + width + "x" + height);
+                }
+                bits[count] = InputBits.create(inputs);
+                decoder.decodeBits(bits[count]);
+                digits[count++] = digit;
+            }
+        }
+        return new Samples(bits, digits, inputs);
+    }
+    
+    /**
+     * Extracts the features of all samples.
+     * 
+     * @param frontEnd The front end extracting the features.
+     * @return New samples containing the feature bits.
+     */
+    public Samples transform(ConvolutionFrontEnd frontEnd) {
+        long[][] features = new long[this.size()][];
+        for (int i = 0; i < features.length; i++) {
+            features[i] = InputBits.create(frontEnd.outputs());
+            frontEnd.transform(this.bits[i], features[i]);
+        }
+        return new Samples(features, this.digits, frontEnd.outputs());
+    }
+    
+    /**
+     * Creates noisy copies of the samples, taking them in turn. Each input bit
+     * is set with a probability of 10 percent.
+     * 
+     * @param count The number of noisy samples.
+     * @param random Generates the noise.
+     * @return New samples containing the noisy bits.
+     */
+    public Samples withNoise(int count, Random random) {
+        long[][] noisy = new long[count][];
+        int[] digits = new int[count];
+        for (int i = 0; i < count; i++) {
+            noisy[i] = this.bits[i % this.size()].clone();
+            for (int j = 0; j < this.inputs; j++) {
+                if (random.nextInt(10) == 0) {
+                    InputBits.set(noisy[i], j);
+                }
+            }
+            digits[i] = this.digits[i % this.size()];
+        }
+        return new Samples(noisy, digits, this.inputs);
+    }
+    
+    /**
+     * Returns the number of samples.
+     * @return The number of samples.
+     */
+    public int size() {
+        return this.digits.length;
+    }
+    
+}
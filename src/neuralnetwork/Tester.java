@@ -26,12 +26,14 @@
  */
 package neuralnetwork;
 
+import java.text.DecimalFormat;
+
 /**
  * Trains the neural network.
  * 
  * @author Pedro Hoffmann Alves
  */
-public class Tester implements Runnable {
+public class Tester implements Job.Task {
     
     /**
      * The Main object containing the neural network and logic.
@@ -55,22 +57,29 @@ public class Tester implements Runnable {
 
     /**
      * Starts the testing process.
-     * Runs until the {@code testing} flag in the {@link Main} object is set to false.
+     * Runs until the job is cancelled.
+     * 
+     * @param job The job running the testing process.
      */
     @Override
-    public void run() {
+    public void run(Job job) {
         this.main.gui.log("Test gestartet...");
-        while(this.main.testing) {
+        while(job.proceed()) {
             int recognized = this.main.performSingleStep(this.currentDigit, false);
             if(this.main.gui.getCbStatus()) {
                 this.main.gui.setStep(recognized, this.currentDigit);
-                this.main.gui.setImage(this.main.image);
+                this.main.gui.setPixels(this.main.pixels);
             }
             if(++this.currentDigit > 9) {
                 this.currentDigit = 0;
             }
             this.main.gui.setRecognitionRate((double)this.main.correctSteps / (double)this.main.totalSteps);
         }
+        if(this.main.cache != null) {
+            this.main.gui.log("Cache: " + new DecimalFormat("#0.00").format(this.main.cache.hitRate() * 100) + "% Treffer, "
+                    + this.main.cache.getEvictions() + " verdrängt");
+            this.main.cache.resetStatistics();
+        }
         this.main.gui.log("Test beendet");
     }
     
@@ -31,7 +31,7 @@ package neuralnetwork;
  * 
  * @author Pedro Hoffmann Alves
  */
-public class Trainer implements Runnable {
+public class Trainer implements Job.Task {
     
     /**
      * The Main object containing the neural network and logic.
@@ -55,16 +55,21 @@ public class Trainer implements Runnable {
     
     /**
      * Starts the training process.
-     * Runs until the {@code training} flag in the {@link Main} object is set to false.
+     * Runs until the job is cancelled.
+     * 
+     * @param job The job running the training process.
      */
     @Override
-    public void run() {
+    public void run(Job job) {
         this.main.gui.log("Training gestartet...");
-        while(this.main.training) {
+        while(job.proceed()) {
             int recognized = this.main.performSingleStep(this.currentDigit, true);
+            if (this.main.checkpointer != null) {
+                this.main.checkpointer.stepCompleted();
+            }
             if(this.main.gui.getCbStatus()) {
                 this.main.gui.setStep(recognized, this.currentDigit);
-                this.main.gui.setImage(this.main.image);
+                this.main.gui.setPixels(this.main.pixels);
             }
             if(++this.currentDigit > 9) {
                 this.currentDigit = 0;
@@ -0,0 +1,469 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import neuralnetwork.network.ConvolutionFrontEnd;
+import neuralnetwork.network.Model;
+import neuralnetwork.network.ModelFile;
+import neuralnetwork.network.OutputLayer;
+
+/**
+ * An append-only binary record of all training steps, allowing a training run
+ * to be replayed exactly.
+ * 
+ * For every step, the digit, the difficulty, the recognized number and the
+ * applied update are written together with the input bits after noise and
+ * feature extraction. Replaying a journal therefore neither reads images nor
+ * draws random numbers. Records are written into a memory mapped region of the
+ * file, which is extended in large chunks, so recording costs a few stores per
+ * step. Closing the journal forces the records to disk and cuts off the unused
+ * part of the last chunk.
+ * 
+ * The file starts with a header: magic bytes {@code NNJL}, version (short),
+ * front end pooling window or 0 (short), random seed (long), image width and
+ * height, number of inputs and outputs (int each) and the number of records
+ * (long). The records follow, each with flags, digit, difficulty and recognized
+ * number (byte each) and the input bits (long words). Flag 1 marks a correct
+ * result; flag 2 marks a reset of the network, which carries no other data.
+ * Flag 4 marks weights loaded into the network, for example from a checkpoint;
+ * the record is followed by all weights, row by row (double each), so a
+ * restored run can be replayed as well.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public class TrainingJournal implements Closeable {
+    
+    /**
+     * The magic bytes at the start of each journal.
+     */
+    private static final int MAGIC = 0x4e4e4a4c; // NNJL
+    
+    /**
+     * The version of the file format.
+     */
+    private static final short VERSION = 2;
+    
+    /**
+     * The size of the header.
+     */
+    private static final int HEADER = 40;
+    
+    /**
+     * The position of the record count in the header.
+     */
+    private static final int COUNT = 32;
+    
+    /**
+     * Marks a step with a correct result.
+     */
+    private static final int CORRECT = 1;
+    
+    /**
+     * Marks a reset of the network.
+     */
+    private static final int RESET = 2;
+    
+    /**
+     * Marks weights loaded into the network.
+     */
+    private static final int LOAD = 4;
+    
+    /**
+     * The size by which the mapped region grows.
+     */
+    private static final int CHUNK = 1 << 20;
+    
+    /**
+     * The path of the journal file.
+     */
+    private final Path file;
+    
+    /**
+     * The number of input neurons.
+     */
+    private final int inputs;
+    
+    /**
+     * The number of output neurons.
+     */
+    private final int outputs;
+    
+    /**
+     * The journal file. Reopened if an interrupt closed it.
+     */
+    private FileChannel channel;
+    
+    /**
+     * The mapped header, holding the record count.
+     */
+    private final MappedByteBuffer header;
+    
+    /**
+     * The number of words of input bits per record.
+     */
+    private final int words;
+    
+    /**
+     * The size of a record.
+     */
+    private final int recordSize;
+    
+    /**
+     * The mapped region records are currently appended to.
+     */
+    private MappedByteBuffer region;
+    
+    /**
+     * The file position of {@code region}.
+     */
+    private long regionStart;
+    
+    /**
+     * The number of records written.
+     */
+    private long count = 0;
+    
+    /**
+     * Determines whether the journal has been closed.
+     */
+    private boolean closed = false;
+    
+    /**
+     * Creates a new, empty journal.
+     * 
+     * @param file The journal file, replaced if it exists.
+     * @param seed The seed of the random noise.
+     * @param frontEnd The front end extracting the inputs, or null.
+     * @param inputs The number of input neurons.
+     * @param outputs The number of output neurons.
+     * @throws IOException If the journal could not be created.
+     */
+    public TrainingJournal(Path file, long seed, ConvolutionFrontEnd frontEnd, int inputs, int outputs) throws IOException {
+        this.file = file;
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.words = (inputs + 63) >>> 6;
+        this.recordSize = 4 + 8 * this.words;
+        this.header = this.map(0, TrainingJournal.HEADER);
+        this.header.putInt(TrainingJournal.MAGIC)
+                .putShort(TrainingJournal.VERSION)
+                .putShort((short) (frontEnd == null ? 0 : frontEnd.poolSize))
+                .putLong(seed)
+                .putInt(Main.IMAGE_WIDTH)
+                .putInt(Main.IMAGE_HEIGHT)
+                .putInt(inputs)
+                .putInt(outputs)
+                .putLong(0);
+        this.regionStart = TrainingJournal.HEADER;
+        this.region = this.map(this.regionStart, TrainingJournal.CHUNK);
+    }
+    
+    /**
+     * Creates the journal configured by system properties.
+     * The journal is enabled by setting {@code neuralnetwork.journal} to the file name,
+     * and closed when the program ends.
+     * 
+     * @param main Contains the neural network to record.
+     * @param seed The seed of the random noise.
+     * @return The new journal, or null if disabled or the file could not be created.
+     */
+    public static TrainingJournal fromSystemProperties(Main main, long seed) {
+        String file = System.getProperty("neuralnetwork.journal");
+        if (file == null) {
+            return null;
+        }
+        try {
+            double[][] weights = main.createWeightBuffer();
+            TrainingJournal journal = new TrainingJournal(Paths.get(file), seed, main.getFrontEnd(), weights[0].length, weights.length);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    journal.close();
+                } catch (IOException ex) {
+                    System.err.println("Journal could not be closed: " + ex.getMessage());
+                }
+            }, "Journal"));
+            return journal;
+        } catch (IOException ex) {
+            System.err.println("Journal could not be created: " + ex.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Records a training step. Called by the training thread.
+     * 
+     * @param digit The digit shown on the image.
+     * @param difficulty The difficulty the image was loaded with.
+     * @param recognized The recognized number.
+     * @param input The input bits of the step.
+     * @throws IOException If the journal could not be extended.
+     */
+    public synchronized void record(int digit, int difficulty, int recognized, long[] input) throws IOException {
+        ByteBuffer record = this.reserve(this.recordSize);
+        record.put((byte) (digit == recognized ? TrainingJournal.CORRECT : 0))
+                .put((byte) digit)
+                .put((byte) difficulty)
+                .put((byte) recognized);
+        for (int i = 0; i < this.words; i++) {
+            record.putLong(input[i]);
+        }
+        this.header.putLong(TrainingJournal.COUNT, ++this.count);
+    }
+    
+    /**
+     * Records a reset of the network.
+     * 
+     * @throws IOException If the journal could not be extended.
+     */
+    public synchronized void recordReset() throws IOException {
+        ByteBuffer record = this.reserve(this.recordSize);
+        record.put((byte) TrainingJournal.RESET);
+        record.position(record.position() + this.recordSize - 1);
+        this.header.putLong(TrainingJournal.COUNT, ++this.count);
+    }
+    
+    /**
+     * Records weights loaded into the network, replacing all previous weights.
+     * 
+     * @param weights The loaded weights, one row per output neuron.
+     * @throws IOException If the journal could not be extended.
+     */
+    public synchronized void recordLoad(double[][] weights) throws IOException {
+        ByteBuffer record = this.reserve(this.recordSize + 8 * this.outputs * this.inputs);
+        record.put((byte) TrainingJournal.LOAD);
+        record.position(record.position() + this.recordSize - 1);
+        for (int i = 0; i < this.outputs; i++) {
+            for (int j = 0; j < this.inputs; j++) {
+                record.putDouble(weights[i][j]);
+            }
+        }
+        this.header.putLong(TrainingJournal.COUNT, ++this.count);
+    }
+    
+    /**
+     * Makes sure the mapped region can hold another record.
+     * 
+     * @param size The size of the record.
+     * @return The region to put the record into.
+     * @throws IOException If the file could not be extended.
+     */
+    private ByteBuffer reserve(int size) throws IOException {
+        if (this.closed) {
+            throw new IOException("Journal is closed");
+        }
+        if (this.region.remaining() < size) {
+            long start = this.regionStart + this.region.position();
+            this.region = this.map(start, Math.max(size, TrainingJournal.CHUNK));
+            this.regionStart = start;
+        }
+        return this.region;
+    }
+    
+    /**
+     * Maps a region of the journal file.
+     * 
+     * Mapping is interruptible, and an interrupt closes the channel. The
+     * training thread is interrupted whenever its job is cancelled, so the
+     * channel is reopened and the mapping repeated instead of giving up. The
+     * interrupt is kept for the caller.
+     * 
+     * @param position The file position of the region.
+     * @param size The size of the region.
+     * @return The mapped region.
+     * @throws IOException If the file could not be mapped.
+     */
+    private MappedByteBuffer map(long position, long size) throws IOException {
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (true) {
+                try {
+                    return this.channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+                } catch (ClosedByInterruptException ex) {
+                    interrupted |= Thread.interrupted();
+                    this.reopen();
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /**
+     * Opens the journal file again after its channel was closed.
+     * Regions mapped before remain valid.
+     * 
+     * @throws IOException If the file could not be opened.
+     */
+    private void reopen() throws IOException {
+        this.channel = FileChannel.open(this.file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+    
+    /**
+     * Flushes all records to disk, cuts off the unused part of the file and
+     * closes the journal. Further records are rejected.
+     * 
+     * @throws IOException If the journal could not be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.region.force();
+        this.header.force();
+        if (!this.channel.isOpen()) {
+            this.reopen();
+        }
+        try {
+            this.channel.truncate(this.regionStart + this.region.position());
+        } catch (IOException ex) {
+            // Some platforms cannot truncate a mapped file; the header still holds the record count
+        } finally {
+            this.channel.close();
+        }
+    }
+    
+    /**
+     * Replays a journal and optionally saves the resulting model.
+     * 
+     * @param args The journal file, optionally followed by {@code --output <file>}.
+     * @throws IOException If the journal could not be read or the model could not be written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1 && !(args.length == 3 && args[1].equals("--output"))) {
+            System.err.println("Usage: TrainingJournal <journal> [--output <model file>]");
+            System.exit(2);
+        }
+        long start = System.nanoTime();
+        Model model = TrainingJournal.replay(Paths.get(args[0]), System.out);
+        System.out.printf("Wiedergabe in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+        if (args.length == 3) {
+            ModelFile.write(model, Paths.get(args[2]));
+        }
+    }
+    
+    /**
+     * Repeats all recorded training steps on a new network.
+     * 
+     * Every step calculates the signals like {@link neuralnetwork.network.Neuron#calculateSignal()}
+     * and applies the update of {@link Main#performSingleStep(int, boolean)}, so the
+     * weights are bit-identical to those of the recorded run. The recognized numbers
+     * are compared with the journal to prove it.
+     * 
+     * @param file The journal file.
+     * @param out Receives a summary, or null.
+     * @return The trained model.
+     * @throws IOException If the journal could not be read or differs from the replay.
+     */
+    public static Model replay(Path file, PrintStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < TrainingJournal.HEADER || buffer.getInt() != TrainingJournal.MAGIC) {
+                throw new IOException("Not a training journal: " + file);
+            }
+            int version = buffer.getShort();
+            if (version < 1 || version > TrainingJournal.VERSION) {
+                throw new IOException("Unsupported journal version " + version + ": " + file);
+            }
+            int pool = buffer.getShort();
+            long seed = buffer.getLong();
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int inputs = buffer.getInt();
+            int outputs = buffer.getInt();
+            long count = buffer.getLong();
+            int words = (inputs + 63) >>> 6;
+            int recordSize = 4 + 8 * words;
+            if (inputs <= 0 || outputs <= 0 || count < 0 || count > buffer.remaining() / recordSize) {
+                throw new IOException("Corrupt training journal: " + file);
+            }
+            OutputLayer layer = new OutputLayer(outputs, inputs);
+            long[] input = new long[words];
+            long steps = 0;
+            long correct = 0;
+            for (long n = 0; n < count; n++) {
+                if (buffer.remaining() < recordSize) {
+                    throw new IOException("Corrupt training journal: " + file);
+                }
+                int flags = buffer.get();
+                int digit = buffer.get();
+                buffer.get();
+                int recognized = buffer.get();
+                for (int i = 0; i < words; i++) {
+                    input[i] = buffer.getLong();
+                }
+                if ((flags & TrainingJournal.RESET) != 0) {
+                    layer.clear();
+                    steps = 0;
+                    correct = 0;
+                    continue;
+                }
+                if ((flags & TrainingJournal.LOAD) != 0) {
+                    if (buffer.remaining() / 8 < (long) outputs * inputs) {
+                        throw new IOException("Corrupt training journal: " + file);
+                    }
+                    for (double[] row : layer.getWeights()) {
+                        for (int j = 0; j < inputs; j++) {
+                            row[j] = buffer.getDouble();
+                        }
+                    }
+                    continue;
+                }
+                int highest = layer.classify(input);
+                if (highest != recognized || digit < 0 || digit >= outputs) {
+                    throw new IOException("Replay differs from the journal at step " + n);
+                }
+                layer.train(input, digit, (flags & TrainingJournal.CORRECT) != 0);
+                steps++;
+                if (highest == digit) {
+                    correct++;
+                }
+            }
+            if (out != null) {
+                out.printf("%d Schritte wiederholt (Seed %d), %d erkannt (%.2f%%)%n", steps, seed, correct,
+                        steps == 0 ? 0.0 : correct * 100.0 / steps);
+            }
+            return new Model(width, height, pool == 0 ? null : ConvolutionFrontEnd.lines(width, height, pool), layer.getWeights());
+        }
+    }
+    
+}
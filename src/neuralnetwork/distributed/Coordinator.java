@@ -0,0 +1,361 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork.distributed;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import neuralnetwork.Main;
+import neuralnetwork.Samples;
+import neuralnetwork.network.DenseKernel;
+import neuralnetwork.network.Model;
+import neuralnetwork.network.ModelFile;
+
+/**
+ * Trains the network with several {@link Worker} processes by parameter averaging.
+ * 
+ * Each round, the coordinator sends the current weights to all workers. Every
+ * worker trains its own shard of the images for a fixed number of steps and
+ * returns the change of its weights. The changes are averaged and added to the
+ * weights before the next round starts.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public class Coordinator {
+    
+    /**
+     * The command line usage.
+     */
+    private static final String USAGE = "Usage: Coordinator --workers <n> [--listen <host:port>|<socket file>] [--rounds <n>] [--steps <n>] [--noise <p>] [--seed <n>] [--output <file>]";
+    
+    /**
+     * The number of workers taking part in the training.
+     */
+    private final int workers;
+    
+    /**
+     * The number of rounds.
+     */
+    private final int rounds;
+    
+    /**
+     * The number of training steps of each worker per round.
+     */
+    private final int steps;
+    
+    /**
+     * The probability of an input being activated by noise.
+     */
+    private final double noise;
+    
+    /**
+     * The seed of the noise, varied per worker.
+     */
+    private final long seed;
+    
+    /**
+     * The averaged weights, one row per output neuron.
+     */
+    private final double[][] weights;
+    
+    /**
+     * The statistics of a finished training.
+     */
+    public static final class Report {
+        
+        /**
+         * The number of training steps of all workers.
+         */
+        public long steps;
+        
+        /**
+         * The number of correctly recognized images during the training.
+         */
+        public long correct;
+        
+        /**
+         * The time from the first to the last round, in nanoseconds.
+         */
+        public long elapsed;
+        
+        /**
+         * The time the workers spent training, summed over all workers, in nanoseconds.
+         */
+        public long training;
+        
+        /**
+         * Returns the number of training steps per second.
+         * @return The throughput of all workers.
+         */
+        public double throughput() {
+            return this.steps * 1e9 / this.elapsed;
+        }
+        
+    }
+    
+    /**
+     * Creates a new Coordinator.
+     * 
+     * @param workers The number of workers.
+     * @param rounds The number of rounds.
+     * @param steps The number of training steps of each worker per round.
+     * @param noise The probability of an input being activated by noise.
+     * @param seed The seed of the noise.
+     * @param inputs The number of input neurons.
+     */
+    public Coordinator(int workers, int rounds, int steps, double noise, long seed, int inputs) {
+        this.workers = workers;
+        this.rounds = rounds;
+        this.steps = steps;
+        this.noise = noise;
+        this.seed = seed;
+        this.weights = new double[ShardTrainer.OUTPUTS][inputs];
+    }
+    
+    /**
+     * Parses the command line, waits for the workers and trains the network.
+     * 
+     * @param args The command line arguments.
+     */
+    public static void main(String[] args) {
+        System.exit(Coordinator.run(args));
+    }
+    
+    /**
+     * Parses the command line, waits for the workers and trains the network.
+     * 
+     * @param args The command line arguments.
+     * @return The exit status, zero if the training was completed.
+     */
+    public static int run(String[] args) {
+        int workers = 0;
+        String listen = "127.0.0.1:7345";
+        int rounds = 100;
+        int steps = 1000;
+        double noise = 0.1;
+        long seed = 1;
+        String output = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--workers":
+                        workers = Integer.parseInt(args[++i]);
+                        break;
+                    case "--listen":
+                        listen = args[++i];
+                        break;
+                    case "--rounds":
+                        rounds = Integer.parseInt(args[++i]);
+                        break;
+                    case "--steps":
+                        steps = Integer.parseInt(args[++i]);
+                        break;
+                    case "--noise":
+                        noise = Double.parseDouble(args[++i]);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(args[++i]);
+                        break;
+                    case "--output":
+                        output = args[++i];
+                        break;
+                    default:
+                        workers = 0;
+                        i = args.length;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException ex) {
+            workers = 0;
+        }
+        if (workers < 1 || rounds < 1 || steps < 1) {
+            System.err.println(Coordinator.USAGE);
+            return 2;
+        }
+        try {
+            Samples samples = Samples.load();
+            if (samples.inputs != Main.IMAGE_WIDTH * Main.IMAGE_HEIGHT) {
+                throw new IOException("Image size does not match the bundled images");
+            }
+            Coordinator coordinator = new Coordinator(workers, rounds, steps, noise, seed, samples.inputs);
+            Report report;
+            try (ServerSocketChannel server = Coordinator.listen(listen)) {
+                System.out.println("Warte auf " + workers + " Worker an " + server.getLocalAddress());
+                report = coordinator.train(server);
+            } finally {
+                if (!listen.contains(":")) {
+                    Files.deleteIfExists(Paths.get(listen));
+                }
+            }
+            System.out.printf("%d Schritte in %.2f s (%.0f Schritte/s), %.2f%% erkannt%n",
+                    report.steps, report.elapsed / 1e9, report.throughput(), coordinator.accuracy(samples) * 100);
+            if (output != null) {
+                ModelFile.write(new Model(Main.IMAGE_WIDTH, Main.IMAGE_HEIGHT, null, coordinator.getWeights()), Paths.get(output));
+            }
+            return 0;
+        } catch (IOException ex) {
+            System.err.println("Error: " + ex.getMessage());
+            return 1;
+        }
+    }
+    
+    /**
+     * Parses an address given on the command line.
+     * 
+     * @param address Either {@code host:port} for TCP or the path of a Unix domain socket.
+     * @return The socket address.
+     */
+    public static SocketAddress address(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            return UnixDomainSocketAddress.of(address);
+        }
+        return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+    }
+    
+    /**
+     * Opens a server socket.
+     * 
+     * @param address Either {@code host:port} for TCP or the path of a Unix domain socket.
+     * @return The bound server channel.
+     * @throws IOException If the socket could not be bound.
+     */
+    public static ServerSocketChannel listen(String address) throws IOException {
+        SocketAddress socket = Coordinator.address(address);
+        ServerSocketChannel server = socket instanceof UnixDomainSocketAddress
+                ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+                : ServerSocketChannel.open();
+        server.bind(socket);
+        return server;
+    }
+    
+    /**
+     * Accepts the workers and runs all rounds.
+     * 
+     * @param server The channel the workers connect to.
+     * @return The statistics of the training.
+     * @throws IOException If a worker failed or the connection was lost.
+     */
+    public Report train(ServerSocketChannel server) throws IOException {
+        List<Link> links = new ArrayList<>();
+        try {
+            for (int i = 0; i < this.workers; i++) {
+                SocketChannel channel = server.accept();
+                Link link = new Link(channel);
+                links.add(link);
+                int version = link.receive(Link.HELLO).getInt();
+                if (version != Link.VERSION) {
+                    throw new IOException("Unsupported protocol version " + version);
+                }
+                ByteBuffer assign = link.begin(Link.ASSIGN, 28);
+                assign.putInt(i).putInt(this.workers).putInt(this.steps).putDouble(this.noise).putLong(this.seed + i);
+                link.send();
+            }
+            return this.rounds(links);
+        } finally {
+            for (Link link : links) {
+                link.close();
+            }
+        }
+    }
+    
+    /**
+     * Runs all rounds with the connected workers and stops them afterwards.
+     * 
+     * @param links The connections to the workers.
+     * @return The statistics of the training.
+     * @throws IOException If a worker failed or the connection was lost.
+     */
+    private Report rounds(List<Link> links) throws IOException {
+        Report report = new Report();
+        double[][] sums = new double[this.weights.length][this.weights[0].length];
+        int size = 8 + this.weights.length * this.weights[0].length * 8;
+        long start = System.nanoTime();
+        for (int round = 0; round < this.rounds; round++) {
+            for (Link link : links) {
+                Link.putWeights(link.begin(Link.WEIGHTS, size), this.weights);
+                link.send();
+            }
+            for (double[] row : sums) {
+                Arrays.fill(row, 0.0);
+            }
+            for (Link link : links) {
+                ByteBuffer delta = link.receive(Link.DELTA);
+                report.steps += delta.getInt();
+                report.correct += delta.getInt();
+                report.training += delta.getLong();
+                Link.addDelta(delta, sums);
+            }
+            for (int i = 0; i < this.weights.length; i++) {
+                for (int j = 0; j < this.weights[i].length; j++) {
+                    this.weights[i][j] += sums[i][j] / links.size();
+                }
+            }
+        }
+        report.elapsed = System.nanoTime() - start;
+        for (Link link : links) {
+            link.send(Link.STOP);
+        }
+        return report;
+    }
+    
+    /**
+     * Returns the averaged weights.
+     * @return The weights, one row per output neuron.
+     */
+    public double[][] getWeights() {
+        return this.weights;
+    }
+    
+    /**
+     * Calculates the fraction of correctly recognized images without noise.
+     * 
+     * @param samples The images to classify.
+     * @return A value between 0 and 1.
+     */
+    public double accuracy(Samples samples) {
+        DenseKernel kernel = new DenseKernel(this.weights);
+        double[] scores = new double[kernel.outputs()];
+        int correct = 0;
+        for (int i = 0; i < samples.size(); i++) {
+            if (kernel.classify(samples.bits[i], scores) == samples.digits[i]) {
+                correct++;
+            }
+        }
+        return (double) correct / samples.size();
+    }
+    
+}
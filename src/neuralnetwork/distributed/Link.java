@@ -0,0 +1,344 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork.distributed;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A connection between the {@link Coordinator} and a {@link Worker}, exchanging
+ * binary frames over a blocking {@link SocketChannel}.
+ * 
+ * Every frame starts with its payload length (int) and its type (byte). All
+ * numbers are big endian. The payloads are:
+ * <ul>
+ * <li>{@link #HELLO}: protocol version (int).</li>
+ * <li>{@link #ASSIGN}: worker index, worker count, steps per round (int each),
+ * noise rate (double), seed (long).</li>
+ * <li>{@link #WEIGHTS}: rows, columns (int each), then all weights row by row (double).</li>
+ * <li>{@link #DELTA}: steps, correct steps (int each), training time in nanoseconds (long),
+ * a bit mask of the changed rows (int), then the weight differences of each changed
+ * row (double). Rows of digits not trained during the round are not sent, and
+ * the mask limits the weights to {@link #MAX_ROWS} rows.</li>
+ * <li>{@link #STOP}: no payload.</li>
+ * </ul>
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public final class Link implements Closeable {
+    
+    /**
+     * The version of the wire format.
+     */
+    public static final int VERSION = 1;
+    
+    /**
+     * Sent by a worker after connecting.
+     */
+    public static final byte HELLO = 1;
+    
+    /**
+     * Tells a worker its shard and the training parameters.
+     */
+    public static final byte ASSIGN = 2;
+    
+    /**
+     * Carries the averaged weights to start the next round with.
+     */
+    public static final byte WEIGHTS = 3;
+    
+    /**
+     * Carries the weight changes of a worker after a round.
+     */
+    public static final byte DELTA = 4;
+    
+    /**
+     * Ends the training.
+     */
+    public static final byte STOP = 5;
+    
+    /**
+     * The largest number of weight rows, one per bit of the row mask.
+     */
+    public static final int MAX_ROWS = Integer.SIZE;
+    
+    /**
+     * The largest accepted payload, in bytes. Protects the receiver from
+     * allocating huge buffers for a corrupt length.
+     */
+    public static final int MAX_PAYLOAD = 1 << 26;
+    
+    /**
+     * The size of the frame header.
+     */
+    private static final int HEADER = 5;
+    
+    /**
+     * The channel the frames are sent over.
+     */
+    private final SocketChannel channel;
+    
+    /**
+     * Holds the frame being written.
+     */
+    private ByteBuffer out = ByteBuffer.allocateDirect(1 << 16);
+    
+    /**
+     * Holds the payload of the last frame read.
+     */
+    private ByteBuffer in = ByteBuffer.allocateDirect(1 << 16);
+    
+    /**
+     * Holds the header of the frame being read.
+     */
+    private final ByteBuffer header = ByteBuffer.allocateDirect(Link.HEADER);
+    
+    /**
+     * Creates a new Link.
+     * 
+     * @param channel A connected, blocking channel.
+     */
+    public Link(SocketChannel channel) {
+        this.channel = channel;
+    }
+    
+    /**
+     * Starts a new frame.
+     * 
+     * @param type The type of the frame.
+     * @param payload The maximum size of the payload, at most {@link #MAX_PAYLOAD}.
+     * @return The buffer to put the payload into.
+     */
+    public ByteBuffer begin(byte type, int payload) {
+        if (payload < 0 || payload > Link.MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Invalid payload size " + payload);
+        }
+        if (this.out.capacity() < Link.HEADER + payload) {
+            this.out = ByteBuffer.allocateDirect(Link.HEADER + payload);
+        }
+        this.out.clear();
+        this.out.position(Link.HEADER);
+        this.out.put(Link.HEADER - 1, type);
+        return this.out;
+    }
+    
+    /**
+     * Sends the frame started by {@link #begin(byte, int)}.
+     * 
+     * @throws IOException If the frame could not be sent.
+     */
+    public void send() throws IOException {
+        this.out.putInt(0, this.out.position() - Link.HEADER);
+        this.out.flip();
+        while (this.out.hasRemaining()) {
+            this.channel.write(this.out);
+        }
+    }
+    
+    /**
+     * Sends a frame without payload.
+     * 
+     * @param type The type of the frame.
+     * @throws IOException If the frame could not be sent.
+     */
+    public void send(byte type) throws IOException {
+        this.begin(type, 0);
+        this.send();
+    }
+    
+    /**
+     * Reads the next frame.
+     * 
+     * @param expected The expected type of the frame.
+     * @return The payload.
+     * @throws IOException If the frame could not be read or has an unexpected type.
+     */
+    public ByteBuffer receive(byte expected) throws IOException {
+        byte type = this.receive();
+        if (type != expected) {
+            throw new IOException("Unexpected frame type " + type + ", expected " + expected);
+        }
+        return this.in;
+    }
+    
+    /**
+     * Reads the next frame.
+     * 
+     * @return The type of the frame. The payload is available through {@link #payload()}.
+     * @throws IOException If the frame could not be read.
+     */
+    public byte receive() throws IOException {
+        this.header.clear();
+        this.readFully(this.header);
+        int length = this.header.getInt(0);
+        if (length < 0 || length > Link.MAX_PAYLOAD) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        if (this.in.capacity() < length) {
+            this.in = ByteBuffer.allocateDirect(length);
+        }
+        this.in.clear();
+        this.in.limit(length);
+        this.readFully(this.in);
+        this.in.flip();
+        return this.header.get(Link.HEADER - 1);
+    }
+    
+    /**
+     * Returns the payload of the last frame read.
+     * @return The payload.
+     */
+    public ByteBuffer payload() {
+        return this.in;
+    }
+    
+    /**
+     * Fills the given buffer from the channel.
+     * 
+     * @param buffer The buffer to fill.
+     * @throws IOException If the channel was closed before the buffer was full.
+     */
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer) < 0) {
+                throw new EOFException("Connection closed");
+            }
+        }
+    }
+    
+    /**
+     * Writes all weights.
+     * 
+     * @param buffer The buffer to write to.
+     * @param weights The weights, one row per output neuron.
+     */
+    public static void putWeights(ByteBuffer buffer, double[][] weights) {
+        buffer.putInt(weights.length);
+        buffer.putInt(weights[0].length);
+        for (double[] row : weights) {
+            for (double weight : row) {
+                buffer.putDouble(weight);
+            }
+        }
+    }
+    
+    /**
+     * Reads all weights.
+     * 
+     * @param buffer The buffer to read from.
+     * @param weights Receives the weights, one row per output neuron.
+     * @throws IOException If the shape of the weights does not match.
+     */
+    public static void getWeights(ByteBuffer buffer, double[][] weights) throws IOException {
+        if (buffer.remaining() != 8 + (long) weights.length * weights[0].length * Double.BYTES
+                || buffer.getInt() != weights.length || buffer.getInt() != weights[0].length) {
+            throw new IOException("Unexpected shape of weights");
+        }
+        for (double[] row : weights) {
+            for (int j = 0; j < row.length; j++) {
+                row[j] = buffer.getDouble();
+            }
+        }
+    }
+    
+    /**
+     * Writes the differences between two sets of weights, skipping unchanged rows.
+     * 
+     * @param buffer The buffer to write to.
+     * @param current The weights after the round, at most {@link #MAX_ROWS} rows.
+     * @param initial The weights before the round.
+     */
+    public static void putDelta(ByteBuffer buffer, double[][] current, double[][] initial) {
+        Link.checkRows(current.length);
+        int mask = 0;
+        for (int i = 0; i < current.length; i++) {
+            for (int j = 0; j < current[i].length; j++) {
+                if (current[i][j] != initial[i][j]) {
+                    mask |= 1 << i;
+                    break;
+                }
+            }
+        }
+        buffer.putInt(mask);
+        for (int i = 0; i < current.length; i++) {
+            if ((mask & 1 << i) != 0) {
+                for (int j = 0; j < current[i].length; j++) {
+                    buffer.putDouble(current[i][j] - initial[i][j]);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Reads weight differences written by {@link #putDelta(ByteBuffer, double[][], double[][])}
+     * and adds them to the given sums.
+     * 
+     * @param buffer The buffer to read from.
+     * @param sums Receives the sum of all differences read, at most {@link #MAX_ROWS} rows.
+     * @throws IOException If the differences do not match the shape of the sums.
+     */
+    public static void addDelta(ByteBuffer buffer, double[][] sums) throws IOException {
+        Link.checkRows(sums.length);
+        try {
+            int mask = buffer.getInt();
+            if (sums.length < Link.MAX_ROWS && mask >>> sums.length != 0
+                    || buffer.remaining() != (long) Integer.bitCount(mask) * sums[0].length * Double.BYTES) {
+                throw new IOException("Unexpected shape of weight differences");
+            }
+            for (int i = 0; i < sums.length; i++) {
+                if ((mask & 1 << i) != 0) {
+                    for (int j = 0; j < sums[i].length; j++) {
+                        sums[i][j] += buffer.getDouble();
+                    }
+                }
+            }
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("Unexpected shape of weight differences", ex);
+        }
+    }
+    
+    /**
+     * Checks that the rows of the weights fit into the row mask.
+     * 
+     * @param rows The number of rows.
+     */
+    private static void checkRows(int rows) {
+        if (rows < 1 || rows > Link.MAX_ROWS) {
+            throw new IllegalArgumentException("Between 1 and " + Link.MAX_ROWS + " weight rows are supported, not " + rows);
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+    
+}
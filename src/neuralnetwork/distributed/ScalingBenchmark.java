@@ -0,0 +1,250 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork.distributed;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import neuralnetwork.Samples;
+
+/**
+ * Measures how the distributed training scales with the number of workers.
+ * 
+ * For each worker count, a {@link Coordinator} is started in this process and
+ * the workers are spawned as separate JVMs on the local host. The throughput
+ * is compared with a single worker, which is always measured first; an
+ * efficiency of 100% means perfectly linear scaling. If a worker process ends
+ * before the training is finished, the run is aborted instead of waiting for
+ * the worker forever.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public class ScalingBenchmark {
+    
+    /**
+     * The command line usage.
+     */
+    private static final String USAGE = "Usage: ScalingBenchmark [--workers <n,n,...>] [--rounds <n>] [--steps <n>] [--unix]";
+    
+    /**
+     * The images the workers are trained on.
+     */
+    private final Samples samples;
+    
+    /**
+     * The stream the report is written to.
+     */
+    private final PrintStream out;
+    
+    /**
+     * The number of rounds per run.
+     */
+    private final int rounds;
+    
+    /**
+     * The number of training steps of each worker per round.
+     */
+    private final int steps;
+    
+    /**
+     * Determines whether Unix domain sockets are used instead of TCP.
+     */
+    private final boolean unix;
+    
+    /**
+     * The throughput of a single worker, in steps per second, or zero if not measured yet.
+     */
+    private double singleThroughput;
+    
+    /**
+     * Creates a new ScalingBenchmark.
+     * 
+     * @param samples The images the workers are trained on.
+     * @param out The stream the report is written to.
+     * @param rounds The number of rounds per run.
+     * @param steps The number of training steps of each worker per round.
+     * @param unix If true, Unix domain sockets are used instead of TCP.
+     */
+    public ScalingBenchmark(Samples samples, PrintStream out, int rounds, int steps, boolean unix) {
+        this.samples = samples;
+        this.out = out;
+        this.rounds = rounds;
+        this.steps = steps;
+        this.unix = unix;
+    }
+    
+    /**
+     * Runs the benchmark for the given worker counts.
+     * 
+     * @param args The command line arguments.
+     * @throws IOException If a worker could not be started or failed.
+     * @throws InterruptedException If interrupted while waiting for a worker.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String workers = "1,2,4";
+        int rounds = 50;
+        int steps = 20000;
+        boolean unix = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--workers":
+                        workers = args[++i];
+                        break;
+                    case "--rounds":
+                        rounds = Integer.parseInt(args[++i]);
+                        break;
+                    case "--steps":
+                        steps = Integer.parseInt(args[++i]);
+                        break;
+                    case "--unix":
+                        unix = true;
+                        break;
+                    default:
+                        rounds = 0;
+                        i = args.length;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException ex) {
+            rounds = 0;
+        }
+        if (rounds < 1 || steps < 1 || !workers.matches("[1-9][0-9]*(,[1-9][0-9]*)*")) {
+            System.err.println(ScalingBenchmark.USAGE);
+            System.exit(2);
+        }
+        ScalingBenchmark benchmark = new ScalingBenchmark(Samples.load(), System.out, rounds, steps, unix);
+        benchmark.out.println(Runtime.getRuntime().availableProcessors() + " Prozessoren, " + rounds + " Runden mit je " + steps + " Schritten pro Worker");
+        benchmark.out.printf("%6s %14s %8s %10s %10s %8s%n", "Worker", "Schritte/s", "Faktor", "Effizienz", "Rechnen", "Erkannt");
+        List<Integer> counts = new ArrayList<>();
+        for (String count : workers.split(",")) {
+            counts.add(Integer.parseInt(count));
+        }
+        if (!counts.contains(1)) {
+            counts.add(0, 1);
+        }
+        for (int count : counts) {
+            benchmark.run(count);
+        }
+    }
+    
+    /**
+     * Trains with the given number of worker processes and writes the report line.
+     * The speedup and the efficiency are only reported once a single worker
+     * has been measured.
+     * 
+     * @param workers The number of workers.
+     * @throws IOException If a worker could not be started or failed.
+     * @throws InterruptedException If interrupted while waiting for a worker.
+     */
+    public void run(int workers) throws IOException, InterruptedException {
+        Coordinator coordinator = new Coordinator(workers, this.rounds, this.steps, 0.1, 1, this.samples.inputs);
+        Path socket = this.unix ? Files.createTempDirectory("neuralnetwork").resolve("coordinator.sock") : null;
+        List<Process> processes = new ArrayList<>();
+        Coordinator.Report report;
+        try (ServerSocketChannel server = Coordinator.listen(this.unix ? socket.toString() : "127.0.0.1:0")) {
+            String address = this.unix ? socket.toString() : "127.0.0.1:" + ((InetSocketAddress) server.getLocalAddress()).getPort();
+            for (int i = 0; i < workers; i++) {
+                processes.add(new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                        "-cp", System.getProperty("java.class.path"), Worker.class.getName(), address)
+                        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start());
+            }
+            for (Process process : processes) {
+                process.onExit().thenRun(() -> ScalingBenchmark.close(server));
+            }
+            try {
+                report = coordinator.train(server);
+            } catch (IOException ex) {
+                throw ScalingBenchmark.failure(processes, ex);
+            }
+        } finally {
+            for (Process process : processes) {
+                if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            }
+            if (socket != null) {
+                Files.deleteIfExists(socket);
+                Files.deleteIfExists(socket.getParent());
+            }
+        }
+        double throughput = report.throughput();
+        if (workers == 1) {
+            this.singleThroughput = throughput;
+        }
+        String speedup = "-";
+        String efficiency = "-";
+        if (this.singleThroughput > 0.0) {
+            speedup = String.format("%.2fx", throughput / this.singleThroughput);
+            efficiency = String.format("%.1f%%", throughput / (workers * this.singleThroughput) * 100);
+        }
+        this.out.printf("%6d %14.0f %8s %10s %9.1f%% %7.2f%%%n", workers, throughput, speedup, efficiency,
+                report.training * 100.0 / (report.elapsed * workers), coordinator.accuracy(this.samples) * 100);
+    }
+    
+    /**
+     * Closes the server channel once a worker process has ended, so the
+     * coordinator stops waiting for workers that will never connect. Workers
+     * that are already connected are noticed by their closed connection.
+     * 
+     * @param server The channel the workers connect to.
+     */
+    private static void close(ServerSocketChannel server) {
+        try {
+            server.close();
+        } catch (IOException ex) {
+            // The coordinator fails with its own exception either way
+        }
+    }
+    
+    /**
+     * Describes why the training failed, naming a worker process that ended
+     * with an error if there is one.
+     * 
+     * @param processes The worker processes.
+     * @param ex The exception thrown by the coordinator.
+     * @return The exception to report.
+     */
+    private static IOException failure(List<Process> processes, IOException ex) {
+        for (int i = 0; i < processes.size(); i++) {
+            Process process = processes.get(i);
+            if (!process.isAlive() && process.exitValue() != 0) {
+                return new IOException("Worker " + (i + 1) + " exited with status " + process.exitValue(), ex);
+            }
+        }
+        return ex;
+    }
+    
+}
@@ -0,0 +1,154 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork.distributed;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import neuralnetwork.Samples;
+import neuralnetwork.network.InputBits;
+import neuralnetwork.network.OutputLayer;
+
+/**
+ * Trains the weights of the output neurons on a shard of the bundled images,
+ * without a {@link neuralnetwork.gui.GUI}.
+ * 
+ * Each step follows {@link neuralnetwork.Main#performSingleStep(int, boolean)}:
+ * the image is classified and the weights of the correct digit are increased
+ * for every active input, see {@link OutputLayer}. Like a difficulty above zero, every input is
+ * activated by noise with the given probability.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public class ShardTrainer {
+    
+    /**
+     * The number of output neurons, one per digit.
+     */
+    public static final int OUTPUTS = 10;
+    
+    /**
+     * The output neurons being trained.
+     */
+    private final OutputLayer layer;
+    
+    /**
+     * The packed input bits of the images in the shard.
+     */
+    private final long[][] bits;
+    
+    /**
+     * The digit shown by each image in the shard.
+     */
+    private final int[] digits;
+    
+    /**
+     * The probability of an input being activated by noise.
+     */
+    private final double noise;
+    
+    /**
+     * Generates the noise.
+     */
+    private final Random random;
+    
+    /**
+     * The input of the current step.
+     */
+    private final long[] input;
+    
+    /**
+     * The index of the next image in the shard.
+     */
+    private int next = 0;
+    
+    /**
+     * Creates a new ShardTrainer.
+     * 
+     * @param samples All images.
+     * @param index The index of the shard, starting at zero.
+     * @param count The number of shards.
+     * @param noise The probability of an input being activated by noise.
+     * @param seed The seed of the noise.
+     */
+    public ShardTrainer(Samples samples, int index, int count, double noise, long seed) {
+        List<Integer> shard = new ArrayList<>();
+        for (int i = index % samples.size(); i < samples.size(); i += count) {
+            shard.add(i);
+        }
+        this.bits = new long[shard.size()][];
+        this.digits = new int[shard.size()];
+        for (int i = 0; i < this.bits.length; i++) {
+            this.bits[i] = samples.bits[shard.get(i)];
+            this.digits[i] = samples.digits[shard.get(i)];
+        }
+        this.layer = new OutputLayer(ShardTrainer.OUTPUTS, samples.inputs);
+        this.input = InputBits.create(samples.inputs);
+        this.noise = noise;
+        this.random = new Random(seed);
+    }
+    
+    /**
+     * Returns the weights being trained. They may be replaced between rounds.
+     * @return The weights, one row per output neuron.
+     */
+    public double[][] getWeights() {
+        return this.layer.getWeights();
+    }
+    
+    /**
+     * Performs the given number of training steps.
+     * 
+     * @param steps The number of steps.
+     * @return The number of correctly recognized images.
+     */
+    public int train(int steps) {
+        int inputs = this.layer.getWeights()[0].length;
+        int correct = 0;
+        for (int step = 0; step < steps; step++) {
+            int digit = this.digits[this.next];
+            System.arraycopy(this.bits[this.next], 0, this.input, 0, this.input.length);
+            if (++this.next == this.bits.length) {
+                this.next = 0;
+            }
+            if (this.noise > 0) {
+                for (int i = 0; i < inputs; i++) {
+                    if (this.random.nextDouble() < this.noise) {
+                        InputBits.set(this.input, i);
+                    }
+                }
+            }
+            boolean recognized = this.layer.classify(this.input) == digit;
+            if (recognized) {
+                correct++;
+            }
+            this.layer.train(this.input, digit, recognized);
+        }
+        return correct;
+    }
+    
+}
@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork.distributed;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import neuralnetwork.Samples;
+
+/**
+ * A training process connected to a {@link Coordinator}.
+ * 
+ * Receives the current weights each round, trains its shard of the images with
+ * a {@link ShardTrainer} and returns the change of the weights.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public class Worker {
+    
+    /**
+     * Connects to the coordinator and trains until it stops the training.
+     * 
+     * @param args The address of the coordinator, {@code host:port} or a socket file.
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: Worker <host:port>|<socket file>");
+            System.exit(2);
+        }
+        try {
+            SocketAddress address = Coordinator.address(args[0]);
+            SocketChannel channel = address instanceof UnixDomainSocketAddress
+                    ? SocketChannel.open(StandardProtocolFamily.UNIX)
+                    : SocketChannel.open();
+            channel.connect(address);
+            try (Link link = new Link(channel)) {
+                Worker.run(link, Samples.load());
+            }
+        } catch (IOException ex) {
+            System.err.println("Error: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * Trains until the coordinator stops the training.
+     * 
+     * @param link The connection to the coordinator.
+     * @param samples All images, the shard is chosen by the coordinator.
+     * @throws IOException If the connection was lost.
+     */
+    public static void run(Link link, Samples samples) throws IOException {
+        link.begin(Link.HELLO, 4).putInt(Link.VERSION);
+        link.send();
+        ByteBuffer assign = link.receive(Link.ASSIGN);
+        int index = assign.getInt();
+        int count = assign.getInt();
+        int steps = assign.getInt();
+        double noise = assign.getDouble();
+        long seed = assign.getLong();
+        ShardTrainer trainer = new ShardTrainer(samples, index, count, noise, seed);
+        double[][] weights = trainer.getWeights();
+        double[][] initial = new double[weights.length][weights[0].length];
+        int size = 20 + weights.length * weights[0].length * 8;
+        byte type;
+        while ((type = link.receive()) == Link.WEIGHTS) {
+            Link.getWeights(link.payload(), initial);
+            for (int i = 0; i < weights.length; i++) {
+                System.arraycopy(initial[i], 0, weights[i], 0, weights[i].length);
+            }
+            long start = System.nanoTime();
+            int correct = trainer.train(steps);
+            long elapsed = System.nanoTime() - start;
+            ByteBuffer delta = link.begin(Link.DELTA, size);
+            delta.putInt(steps).putInt(correct).putLong(elapsed);
+            Link.putDelta(delta, weights, initial);
+            link.send();
+        }
+        if (type != Link.STOP) {
+            throw new IOException("Unexpected frame type " + type);
+        }
+    }
+    
+}
@@ -27,11 +27,9 @@
 package neuralnetwork.gui;
 
 import java.awt.Color;
-import java.awt.Image;
-import java.awt.image.BufferedImage;
 import java.text.DecimalFormat;
-import javax.swing.ImageIcon;
 import javax.swing.text.DefaultCaret;
+import neuralnetwork.Job;
 import neuralnetwork.Main;
 import neuralnetwork.Tester;
 import neuralnetwork.Trainer;
@@ -50,10 +48,17 @@ public class GUI extends javax.swing.JFrame {
     private final Main main;
     
     /**
-     * The thread currently training or testing the network.
-     * Should be of class {@link Trainer} or {@link Tester}.
+     * The job currently training or testing the network, null if there is none.
+     * Runs a {@link Trainer} or a {@link Tester}.
      */
-    private Thread thread;
+    private Job job;
+    
+    /**
+     * The icon of {@code lbImage}, showing the image currently being processed.
+     * Enlarged to fit the 120 pixels reserved for the label.
+     */
+    private final PixelIcon imageIcon = new PixelIcon(Main.IMAGE_WIDTH, Main.IMAGE_HEIGHT,
+            Math.max(1, 120 / Math.max(Main.IMAGE_WIDTH, Main.IMAGE_HEIGHT)));
     
     /**
      * Creates new form {@code GUI}.
@@ -62,6 +67,7 @@ public class GUI extends javax.swing.JFrame {
     public GUI(Main main) {
         this.main = main;
         initComponents();
+        this.lbImage.setIcon(this.imageIcon);
         DefaultCaret caret = (DefaultCaret) this.taLog.getCaret();
         caret.setUpdatePolicy(DefaultCaret.ALWAYS_UPDATE);
         this.setVisible(true);
@@ -97,10 +103,11 @@ public class GUI extends javax.swing.JFrame {
     /**
      * Changes the image displayed on the user interface.
      * 
-     * @param img The new image to be displayed.
+     * @param pixels Array of integer RGB values of the new image, row by row from the top.
      */
-    public void setImage(BufferedImage img) {
-        this.lbImage.setIcon(new ImageIcon(img.getScaledInstance(img.getWidth() * 8, img.getHeight() * 8, Image.SCALE_DEFAULT)));
+    public void setPixels(int[] pixels) {
+        this.imageIcon.setPixels(pixels);
+        this.lbImage.repaint();
     }
     
     /**
@@ -343,26 +350,15 @@ public class GUI extends javax.swing.JFrame {
      * @param evt The click event.
      */
     private void btTrainingActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btTrainingActionPerformed
-        if(!this.main.testing) {
-            if(this.main.training) {
-                this.main.training = false;
-                try {
-                    this.thread.join();
-                } catch (InterruptedException ex) {
-                    System.out.println("Warning: Training not stopped");
-                }
-                this.btTraining.setText("Training starten");
-                this.btTest.setEnabled(true);
-                //this.btReset.setEnabled(true);
-            }
-            else {
-                this.btTest.setEnabled(false);
-                //this.btReset.setEnabled(false);
-                this.btTraining.setText("Training stoppen");
-                this.main.training = true;
-                this.thread = new Thread(new Trainer(this.main));
-                this.thread.start();
-            }
+        if(this.job == null) {
+            this.btTest.setEnabled(false);
+            //this.btReset.setEnabled(false);
+            this.btTraining.setText("Training stoppen");
+            this.startJob(new Trainer(this.main));
+        }
+        else if(!this.btTest.isEnabled()) {
+            this.btTraining.setEnabled(false);
+            this.job.cancel();
         }
     }//GEN-LAST:event_btTrainingActionPerformed
     
@@ -372,29 +368,40 @@ public class GUI extends javax.swing.JFrame {
      * @param evt The click event.
      */
     private void btTestActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btTestActionPerformed
-        if(!this.main.training) {
-            if(this.main.testing) {
-                this.main.testing = false;
-                try {
-                    this.thread.join();
-                } catch (InterruptedException ex) {
-                    System.out.println("Warning: Testing not stopped");
-                }
-                this.btTest.setText("Test starten");
-                this.btTraining.setEnabled(true);
-                //this.btReset.setEnabled(true);
-            }
-            else {
-                this.btTraining.setEnabled(false);
-                //this.btReset.setEnabled(false);
-                this.btTest.setText("Test stoppen");
-                this.main.testing = true;
-                this.thread = new Thread(new Tester(this.main));
-                this.thread.start();
-            }
+        if(this.job == null) {
+            this.btTraining.setEnabled(false);
+            //this.btReset.setEnabled(false);
+            this.btTest.setText("Test stoppen");
+            this.startJob(new Tester(this.main));
+        }
+        else if(!this.btTraining.isEnabled()) {
+            this.btTest.setEnabled(false);
+            this.job.cancel();
         }
     }//GEN-LAST:event_btTestActionPerformed
     
+    /**
+     * Starts training or testing the network.
+     * The buttons are reset on the event dispatch thread once the job has finished,
+     * so stopping it never blocks the GUI.
+     * 
+     * @param task The {@link Trainer} or {@link Tester} to run.
+     */
+    private void startJob(Job.Task task) {
+        this.job = this.main.jobs.submit(task);
+        this.job.completion().whenComplete((result, ex) -> java.awt.EventQueue.invokeLater(() -> {
+            if(ex != null) {
+                this.log("Fehler: " + ex);
+            }
+            this.job = null;
+            this.btTraining.setText("Training starten");
+            this.btTest.setText("Test starten");
+            this.btTraining.setEnabled(true);
+            this.btTest.setEnabled(true);
+            //this.btReset.setEnabled(true);
+        }));
+    }
+    
     /**
      * Called when {@code btReset} is clicked.
      * Resets both the neural network and the {@code GUI}.
@@ -0,0 +1,110 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork.gui;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import javax.swing.Icon;
+
+/**
+ * An {@link Icon} displaying a small bitmap enlarged by an integer factor.
+ * 
+ * The pixels are written directly into the raster of a single reused image,
+ * which is painted with nearest neighbour scaling. No images are created or
+ * scaled in advance when the pixels change.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public class PixelIcon implements Icon {
+    
+    /**
+     * The image holding the unscaled pixels.
+     */
+    private final BufferedImage image;
+    
+    /**
+     * The raster data of {@code image}, one RGB value per pixel.
+     */
+    private final int[] data;
+    
+    /**
+     * The factor the image is enlarged by.
+     */
+    private final int scale;
+    
+    /**
+     * Creates a new PixelIcon showing a white image.
+     * 
+     * @param width The width of the bitmap in pixels.
+     * @param height The height of the bitmap in pixels.
+     * @param scale The factor the bitmap is enlarged by.
+     */
+    public PixelIcon(int width, int height, int scale) {
+        this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        this.data = ((DataBufferInt) this.image.getRaster().getDataBuffer()).getData();
+        this.scale = scale;
+        Arrays.fill(this.data, 0xFFFFFF);
+    }
+    
+    /**
+     * Replaces the displayed pixels.
+     * The component showing the icon has to be repainted afterwards.
+     * 
+     * @param pixels Array of integer RGB values, row by row from the top.
+     */
+    public void setPixels(int[] pixels) {
+        synchronized (this.data) {
+            System.arraycopy(pixels, 0, this.data, 0, this.data.length);
+        }
+    }
+    
+    @Override
+    public void paintIcon(Component c, Graphics g, int x, int y) {
+        Graphics2D g2 = (Graphics2D) g.create();
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        synchronized (this.data) {
+            g2.drawImage(this.image, x, y, this.getIconWidth(), this.getIconHeight(), null);
+        }
+        g2.dispose();
+    }
+    
+    @Override
+    public int getIconWidth() {
+        return this.image.getWidth() * this.scale;
+    }
+    
+    @Override
+    public int getIconHeight() {
+        return this.image.getHeight() * this.scale;
+    }
+    
+}
@@ -0,0 +1,408 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a minimal Java class file: a constant pool, methods with code and
+ * nothing else. Used by {@link KernelCompiler}.
+ * 
+ * Only code without branches is supported, so no stack map frames are needed.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+final class ClassFile {
+    
+    // Opcodes used by the generated code, see chapter 6 of the JVM specification
+    static final int ALOAD_0 = 0x2a;
+    static final int ALOAD_1 = 0x2b;
+    static final int ALOAD_2 = 0x2c;
+    static final int BIPUSH = 0x10;
+    static final int DADD = 0x63;
+    static final int DASTORE = 0x52;
+    static final int DALOAD = 0x31;
+    static final int DCONST_0 = 0x0e;
+    static final int DDIV = 0x6f;
+    static final int DLOAD = 0x18;
+    static final int DMUL = 0x6b;
+    static final int DSTORE = 0x39;
+    static final int DUP2 = 0x5c;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int IRETURN = 0xac;
+    static final int L2D = 0x8a;
+    static final int LALOAD = 0x2f;
+    static final int LAND = 0x7f;
+    static final int LCONST_1 = 0x0a;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int LLOAD_2 = 0x20;
+    static final int LSTORE_2 = 0x41;
+    static final int LUSHR = 0x7d;
+    static final int RETURN = 0xb1;
+    static final int SIPUSH = 0x11;
+    
+    /**
+     * The class file version, Java 8. Later versions would require stack map frames
+     * only for code with branches, which is never generated.
+     */
+    private static final int VERSION = 52;
+    
+    /**
+     * The constant pool, written entry by entry.
+     */
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    
+    /**
+     * Writes to {@code pool}.
+     */
+    private final DataOutputStream poolOut = new DataOutputStream(this.pool);
+    
+    /**
+     * The index of each constant pool entry already written.
+     */
+    private final Map<String, Integer> entries = new HashMap<>();
+    
+    /**
+     * The index of the next constant pool entry.
+     */
+    private int next = 1;
+    
+    /**
+     * The methods written so far.
+     */
+    private final List<byte[]> methods = new ArrayList<>();
+    
+    /**
+     * The constant pool index of this class.
+     */
+    private final int thisClass;
+    
+    /**
+     * The constant pool index of the super class.
+     */
+    private final int superClass;
+    
+    /**
+     * The constant pool index of the implemented interface.
+     */
+    private final int iface;
+    
+    /**
+     * Creates a new ClassFile.
+     * 
+     * @param name The internal name of the class.
+     * @param superName The internal name of the super class.
+     * @param interfaceName The internal name of the implemented interface.
+     */
+    ClassFile(String name, String superName, String interfaceName) {
+        this.thisClass = this.classRef(name);
+        this.superClass = this.classRef(superName);
+        this.iface = this.classRef(interfaceName);
+    }
+    
+    /**
+     * Returns the constant pool index of this class.
+     * @return The index of the class entry.
+     */
+    int thisClass() {
+        return this.thisClass;
+    }
+    
+    /**
+     * Returns the constant pool index of the super class.
+     * @return The index of the class entry.
+     */
+    int superClass() {
+        return this.superClass;
+    }
+    
+    /**
+     * Adds a UTF-8 string to the constant pool.
+     * 
+     * @param value The string.
+     * @return The index of the entry.
+     */
+    int utf8(String value) {
+        Integer index = this.entries.get("U" + value);
+        if (index != null) {
+            return index;
+        }
+        try {
+            this.poolOut.writeByte(1);
+            this.poolOut.writeUTF(value);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return this.add("U" + value, 1);
+    }
+    
+    /**
+     * Adds a class reference to the constant pool.
+     * 
+     * @param name The internal name of the class.
+     * @return The index of the entry.
+     */
+    int classRef(String name) {
+        Integer index = this.entries.get("C" + name);
+        if (index != null) {
+            return index;
+        }
+        int utf8 = this.utf8(name);
+        this.write(7, utf8);
+        return this.add("C" + name, 1);
+    }
+    
+    /**
+     * Adds a method reference to the constant pool.
+     * 
+     * @param owner The constant pool index of the owning class.
+     * @param name The name of the method.
+     * @param descriptor The descriptor of the method.
+     * @return The index of the entry.
+     */
+    int methodRef(int owner, String name, String descriptor) {
+        String key = "M" + owner + "." + name + descriptor;
+        Integer index = this.entries.get(key);
+        if (index != null) {
+            return index;
+        }
+        int nameIndex = this.utf8(name);
+        int descriptorIndex = this.utf8(descriptor);
+        this.write(12, nameIndex, descriptorIndex);
+        int nameAndType = this.add("N" + name + descriptor, 1);
+        this.write(10, owner, nameAndType);
+        return this.add(key, 1);
+    }
+    
+    /**
+     * Adds an integer constant to the constant pool.
+     * 
+     * @param value The value.
+     * @return The index of the entry.
+     */
+    int integer(int value) {
+        Integer index = this.entries.get("I" + value);
+        if (index != null) {
+            return index;
+        }
+        try {
+            this.poolOut.writeByte(3);
+            this.poolOut.writeInt(value);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return this.add("I" + value, 1);
+    }
+    
+    /**
+     * Adds a double constant to the constant pool.
+     * Constants with the same bits share an entry.
+     * 
+     * @param value The value.
+     * @return The index of the entry.
+     */
+    int doubleConstant(double value) {
+        String key = "D" + Double.doubleToRawLongBits(value);
+        Integer index = this.entries.get(key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            this.poolOut.writeByte(6);
+            this.poolOut.writeDouble(value);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return this.add(key, 2);
+    }
+    
+    /**
+     * Writes a constant pool entry consisting of two-byte indices.
+     */
+    private void write(int tag, int... indices) {
+        try {
+            this.poolOut.writeByte(tag);
+            for (int index : indices) {
+                this.poolOut.writeShort(index);
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    /**
+     * Registers the constant pool entry just written.
+     * 
+     * @param key Identifies the entry for reuse.
+     * @param slots The number of slots taken by the entry.
+     * @return The index of the entry.
+     */
+    private int add(String key, int slots) {
+        int index = this.next;
+        this.next += slots;
+        if (this.next > 0xffff) {
+            throw new IllegalArgumentException("Constant pool too large");
+        }
+        this.entries.put(key, index);
+        return index;
+    }
+    
+    /**
+     * Adds a method.
+     * 
+     * @param access The access flags.
+     * @param name The name of the method.
+     * @param descriptor The descriptor of the method.
+     * @param code The bytecode.
+     * @param maxStack The maximum depth of the operand stack.
+     * @param maxLocals The number of local variable slots.
+     */
+    void method(int access, String name, String descriptor, Code code, int maxStack, int maxLocals) {
+        if (code.size() > 0xffff) {
+            throw new IllegalArgumentException("Method " + name + " too large");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(this.utf8(name));
+            out.writeShort(this.utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(this.utf8("Code"));
+            out.writeInt(12 + code.size());
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.size());
+            code.writeTo(out);
+            out.writeShort(0);
+            out.writeShort(0);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        this.methods.add(bytes.toByteArray());
+    }
+    
+    /**
+     * Returns the complete class file.
+     * 
+     * @return The bytes of the class file.
+     */
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xcafebabe);
+            out.writeShort(0);
+            out.writeShort(ClassFile.VERSION);
+            out.writeShort(this.next);
+            this.pool.writeTo(out);
+            out.writeShort(0x0031); // public final super
+            out.writeShort(this.thisClass);
+            out.writeShort(this.superClass);
+            out.writeShort(1);
+            out.writeShort(this.iface);
+            out.writeShort(0);
+            out.writeShort(this.methods.size());
+            for (byte[] method : this.methods) {
+                out.write(method);
+            }
+            out.writeShort(0);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * The bytecode of a single method.
+     */
+    static final class Code extends ByteArrayOutputStream {
+        
+        /**
+         * Appends an instruction without operands.
+         * 
+         * @param opcode The instruction.
+         * @return This object.
+         */
+        Code op(int opcode) {
+            this.write(opcode);
+            return this;
+        }
+        
+        /**
+         * Appends an instruction with a two-byte operand.
+         * 
+         * @param opcode The instruction.
+         * @param operand The operand.
+         * @return This object.
+         */
+        Code op(int opcode, int operand) {
+            this.write(opcode);
+            this.write(operand >>> 8);
+            this.write(operand);
+            return this;
+        }
+        
+        /**
+         * Appends an instruction accessing a local variable.
+         * 
+         * @param opcode The instruction.
+         * @param index The index of the local variable, between 0 and 255.
+         * @return This object.
+         */
+        Code local(int opcode, int index) {
+            this.write(opcode);
+            this.write(index);
+            return this;
+        }
+        
+        /**
+         * Pushes an integer constant.
+         * 
+         * @param value The constant, between -32768 and 32767.
+         * @return This object.
+         */
+        Code push(int value) {
+            if (value >= -128 && value <= 127) {
+                this.write(ClassFile.BIPUSH);
+                this.write(value);
+                return this;
+            }
+            return this.op(ClassFile.SIPUSH, value);
+        }
+        
+    }
+    
+}
@@ -75,6 +75,15 @@ public class Connection {
         this.weight = this.weight + value;
     }
     
+    /**
+     * Replaces the connection's weight by the given value.
+     * Used to restore a previously saved network.
+     * @param value The new weight.
+     */
+    public void setWeight(double value) {
+        this.weight = value;
+    }
+    
     /**
      * Returns the connections's current weight.
      * @return The current weight.
@@ -0,0 +1,357 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork.network;
+
+import java.util.Arrays;
+
+/**
+ * Extracts binary features from an input image before it reaches the output neurons.
+ * 
+ * The image is convolved with a bank of fixed filters and each response map is
+ * reduced by max pooling; windows at the right and bottom border may be
+ * smaller. Every pooled response above zero activates one feature bit, so the
+ * result can be fed into any {@link Kernel} like an image.
+ * 
+ * The convolutions are computed as matrix multiplications: the image patches
+ * are copied into the columns of a matrix (im2col), which is then multiplied
+ * with the filter matrix. To keep the matrices in the cache, this is done for a
+ * few rows of the response maps at a time. All intermediate buffers are
+ * allocated once per thread and reused.
+ * 
+ * The filters are not trained; only the weights of the output neurons are.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public class ConvolutionFrontEnd {
+    
+    /**
+     * The approximate number of response map positions computed at a time.
+     */
+    private static final int TILE_SIZE = 512;
+    
+    /**
+     * The width of the input images.
+     */
+    public final int width;
+    
+    /**
+     * The height of the input images.
+     */
+    public final int height;
+    
+    /**
+     * The width and height of each filter.
+     */
+    public final int kernelSize;
+    
+    /**
+     * The width and height of each pooling window.
+     */
+    public final int poolSize;
+    
+    /**
+     * The filter matrix, {@code kernelSize * kernelSize} weights per filter, filter by filter.
+     */
+    private final float[] filters;
+    
+    /**
+     * The number of filters.
+     */
+    private final int filterCount;
+    
+    /**
+     * The width of each response map.
+     */
+    private final int convWidth;
+    
+    /**
+     * The height of each response map.
+     */
+    private final int convHeight;
+    
+    /**
+     * The width of each pooled map.
+     */
+    private final int poolWidth;
+    
+    /**
+     * The height of each pooled map.
+     */
+    private final int poolHeight;
+    
+    /**
+     * The number of response map rows computed at a time.
+     */
+    private final int tileRows;
+    
+    /**
+     * The unpacked image and pooling buffers of each thread.
+     */
+    private final ThreadLocal<float[][]> buffers;
+    
+    /**
+     * The im2col matrix of each thread, one row per filter tap.
+     */
+    private final ThreadLocal<float[][]> columnBuffers;
+    
+    /**
+     * The response maps of each thread, one row per filter.
+     */
+    private final ThreadLocal<float[][]> responseBuffers;
+    
+    /**
+     * Creates a new ConvolutionFrontEnd.
+     * 
+     * @param width The width of the input images.
+     * @param height The height of the input images.
+     * @param kernelSize The width and height of each filter.
+     * @param poolSize The width and height of each pooling window.
+     * @param filters The filters, {@code kernelSize * kernelSize} weights each, row by row.
+     */
+    public ConvolutionFrontEnd(int width, int height, int kernelSize, int poolSize, double[][] filters) {
+        if (kernelSize < 1 || kernelSize > width || kernelSize > height || poolSize < 1 || filters.length == 0) {
+            throw new IllegalArgumentException("Invalid front end configuration");
+        }
+        this.width = width;
+        this.height = height;
+        this.kernelSize = kernelSize;
+        this.poolSize = poolSize;
+        this.filterCount = filters.length;
+        int taps = kernelSize * kernelSize;
+        this.filters = new float[this.filterCount * taps];
+        for (int f = 0; f < this.filterCount; f++) {
+            if (filters[f].length != taps) {
+                throw new IllegalArgumentException("Invalid filter size");
+            }
+            for (int tap = 0; tap < taps; tap++) {
+                this.filters[f * taps + tap] = (float) filters[f][tap];
+            }
+        }
+        this.convWidth = width - kernelSize + 1;
+        this.convHeight = height - kernelSize + 1;
+        this.poolWidth = (this.convWidth + poolSize - 1) / poolSize;
+        this.poolHeight = (this.convHeight + poolSize - 1) / poolSize;
+        this.tileRows = Math.max(1, Math.min(this.convHeight, ConvolutionFrontEnd.TILE_SIZE / this.convWidth));
+        int tile = this.tileRows * this.convWidth;
+        this.buffers = ThreadLocal.withInitial(() -> new float[][]{
+            new float[width * height],
+            new float[this.outputs()]
+        });
+        this.columnBuffers = ThreadLocal.withInitial(() -> new float[taps][tile]);
+        this.responseBuffers = ThreadLocal.withInitial(() -> new float[this.filterCount][tile]);
+    }
+    
+    /**
+     * Creates a front end with four 3x3 line detectors (horizontal, vertical and
+     * both diagonals).
+     * 
+     * @param width The width of the input images.
+     * @param height The height of the input images.
+     * @param poolSize The width and height of each pooling window.
+     * @return The new front end.
+     */
+    public static ConvolutionFrontEnd lines(int width, int height, int poolSize) {
+        return new ConvolutionFrontEnd(width, height, 3, poolSize, new double[][]{
+            {-1, -1, -1, 2, 2, 2, -1, -1, -1},
+            {-1, 2, -1, -1, 2, -1, -1, 2, -1},
+            {2, -1, -1, -1, 2, -1, -1, -1, 2},
+            {-1, -1, 2, -1, 2, -1, 2, -1, -1}
+        });
+    }
+    
+    /**
+     * Creates the front end configured by system properties.
+     * 
+     * The front end is enabled by {@code neuralnetwork.frontend}; the pooling
+     * window is set by {@code neuralnetwork.frontend.pool} (default 2).
+     * 
+     * @param width The width of the input images.
+     * @param height The height of the input images.
+     * @return The new front end, or null if disabled.
+     */
+    public static ConvolutionFrontEnd fromSystemProperties(int width, int height) {
+        if (!Boolean.getBoolean("neuralnetwork.frontend")) {
+            return null;
+        }
+        return ConvolutionFrontEnd.lines(width, height, Integer.getInteger("neuralnetwork.frontend.pool", 2));
+    }
+    
+    /**
+     * Returns the filters.
+     * @return A copy of the filters, {@code kernelSize * kernelSize} weights each.
+     */
+    public double[][] getFilters() {
+        int taps = this.kernelSize * this.kernelSize;
+        double[][] copy = new double[this.filterCount][taps];
+        for (int f = 0; f < this.filterCount; f++) {
+            for (int tap = 0; tap < taps; tap++) {
+                copy[f][tap] = this.filters[f * taps + tap];
+            }
+        }
+        return copy;
+    }
+    
+    /**
+     * Returns the number of feature bits produced per image.
+     * @return The number of features.
+     */
+    public int outputs() {
+        return this.filterCount * this.poolWidth * this.poolHeight;
+    }
+    
+    /**
+     * Extracts the features of an image.
+     * 
+     * @param input The packed bits of the input image, row by row.
+     * @param features Receives the packed feature bits, see {@link InputBits#create(int)}.
+     */
+    public void transform(long[] input, long[] features) {
+        float[][] buffer = this.buffers.get();
+        float[] image = buffer[0];
+        float[] pooled = buffer[1];
+        float[][] columns = this.columnBuffers.get();
+        float[][] responses = this.responseBuffers.get();
+        int taps = this.kernelSize * this.kernelSize;
+        int tile = this.tileRows * this.convWidth;
+        int mapSize = this.poolWidth * this.poolHeight;
+        
+        for (int pixel = 0; pixel < image.length; pixel++) {
+            image[pixel] = (input[pixel >>> 6] >>> pixel) & 1L;
+        }
+        Arrays.fill(pooled, Float.NEGATIVE_INFINITY);
+        
+        for (int top = 0; top < this.convHeight; top += this.tileRows) {
+            int rows = Math.min(this.tileRows, this.convHeight - top);
+            int length = rows * this.convWidth;
+            
+            // im2col: one row per filter tap, one column per response map position
+            for (int dy = 0, tap = 0; dy < this.kernelSize; dy++) {
+                for (int dx = 0; dx < this.kernelSize; dx++, tap++) {
+                    for (int y = 0; y < rows; y++) {
+                        System.arraycopy(image, (top + y + dy) * this.width + dx, columns[tap], y * this.convWidth, this.convWidth);
+                    }
+                }
+            }
+            
+            // GEMM: responses = filters * columns
+            for (int f = 0; f < this.filterCount; f++) {
+                Arrays.fill(responses[f], 0, length, 0.0f);
+                for (int tap = 0; tap < taps; tap++) {
+                    ConvolutionFrontEnd.multiplyAdd(this.filters[f * taps + tap], columns[tap], responses[f], length);
+                }
+            }
+            
+            // Max pooling
+            for (int f = 0; f < this.filterCount; f++) {
+                float[] map = responses[f];
+                for (int y = 0; y < rows; y++) {
+                    int row = f * mapSize + (top + y) / this.poolSize * this.poolWidth;
+                    int response = y * this.convWidth;
+                    for (int px = 0; px < this.poolWidth; px++) {
+                        float max = pooled[row + px];
+                        int end = response + Math.min((px + 1) * this.poolSize, this.convWidth);
+                        for (int x = response + px * this.poolSize; x < end; x++) {
+                            max = map[x] > max ? map[x] : max;
+                        }
+                        pooled[row + px] = max;
+                    }
+                }
+            }
+        }
+        
+        // Thresholding: a feature is active if any response in its window is positive
+        for (int w = 0; w < features.length; w++) {
+            long word = 0L;
+            for (int b = 0, p = w << 6; b < 64 && p < pooled.length; b++, p++) {
+                if (pooled[p] > 0.0f) {
+                    word |= 1L << b;
+                }
+            }
+            features[w] = word;
+        }
+    }
+    
+    /**
+     * Adds a multiple of one vector to another one ({@code y += a * x}).
+     * Both vectors start at index zero, which lets the JIT vectorize the loop.
+     * 
+     * @param a The factor.
+     * @param x The vector to add.
+     * @param y The vector to add to.
+     * @param length The number of elements.
+     */
+    private static void multiplyAdd(float a, float[] x, float[] y, int length) {
+        for (int i = 0; i < length; i++) {
+            y[i] += a * x[i];
+        }
+    }
+    
+    /**
+     * Combines this front end with a kernel computing the output signals from the features.
+     * 
+     * @param output The kernel receiving the features.
+     * @return A kernel accepting input images.
+     */
+    public Kernel attach(Kernel output) {
+        ThreadLocal<long[]> features = ThreadLocal.withInitial(() -> InputBits.create(this.outputs()));
+        return new Kernel() {
+            @Override
+            public int inputs() {
+                return ConvolutionFrontEnd.this.width * ConvolutionFrontEnd.this.height;
+            }
+            
+            @Override
+            public int outputs() {
+                return output.outputs();
+            }
+            
+            @Override
+            public void score(long[] input, double[] scores) {
+                long[] bits = features.get();
+                ConvolutionFrontEnd.this.transform(input, bits);
+                output.score(bits, scores);
+            }
+        };
+    }
+    
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ConvolutionFrontEnd)) {
+            return false;
+        }
+        ConvolutionFrontEnd frontEnd = (ConvolutionFrontEnd) other;
+        return this.width == frontEnd.width && this.height == frontEnd.height
+                && this.kernelSize == frontEnd.kernelSize && this.poolSize == frontEnd.poolSize
+                && Arrays.equals(this.filters, frontEnd.filters);
+    }
+    
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(this.filters) * 31 + this.width * 7 + this.height * 3 + this.kernelSize + this.poolSize;
+    }
+    
+}
@@ -0,0 +1,106 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork.network;
+
+/**
+ * A {@link Kernel} visiting every weight of the layer.
+ * 
+ * The weights are stored in a single array, row by row. Only the words of
+ * active input neurons contribute to a signal.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public class DenseKernel implements Kernel {
+    
+    /**
+     * All weights, one row of {@code inputs} values per output neuron.
+     */
+    private final double[] weights;
+    
+    /**
+     * The number of input neurons.
+     */
+    private final int inputs;
+    
+    /**
+     * The number of output neurons.
+     */
+    private final int outputs;
+    
+    /**
+     * Creates a new DenseKernel from a copy of the given weights.
+     * 
+     * @param weights The weights, one row per output neuron.
+     */
+    public DenseKernel(double[][] weights) {
+        this.outputs = weights.length;
+        this.inputs = weights[0].length;
+        this.weights = new double[this.outputs * this.inputs];
+        for (int i = 0; i < this.outputs; i++) {
+            System.arraycopy(weights[i], 0, this.weights, i * this.inputs, this.inputs);
+        }
+    }
+    
+    @Override
+    public int inputs() {
+        return this.inputs;
+    }
+    
+    @Override
+    public int outputs() {
+        return this.outputs;
+    }
+    
+    @Override
+    public void score(long[] input, double[] scores) {
+        for (int i = 0, offset = 0; i < this.outputs; i++, offset += this.inputs) {
+            scores[i] = DenseKernel.signal(this.weights, offset, this.inputs, input);
+        }
+    }
+    
+    /**
+     * Calculates the signal of a single output neuron.
+     * 
+     * @param weights The array containing the weights of the output neuron.
+     * @param offset The position of the first weight of the output neuron.
+     * @param inputs The number of input neurons.
+     * @param input The packed input bits.
+     * @return The signal.
+     */
+    static double signal(double[] weights, int offset, int inputs, long[] input) {
+        double sum = 0.0;
+        for (int w = 0; w < input.length; w++) {
+            long word = input[w];
+            while (word != 0) {
+                sum += weights[offset + (w << 6) + Long.numberOfTrailingZeros(word)];
+                word &= word - 1;
+            }
+        }
+        return sum / inputs;
+    }
+    
+}
@@ -0,0 +1,104 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork.network;
+
+import java.util.Arrays;
+
+/**
+ * Packs the signals of binary input neurons into {@code long} words.
+ * 
+ * Bit {@code i % 64} of word {@code i / 64} represents input neuron {@code i}.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public final class InputBits {
+    
+    private InputBits() {
+    }
+    
+    /**
+     * Creates an empty bit array for the given number of inputs.
+     * 
+     * @param inputs The number of input neurons.
+     * @return An array with all bits cleared.
+     */
+    public static long[] create(int inputs) {
+        return new long[(inputs + 63) >>> 6];
+    }
+    
+    /**
+     * Checks whether an input neuron is active.
+     * 
+     * @param bits The packed input bits.
+     * @param index The index of the input neuron.
+     * @return True if the neuron is active.
+     */
+    public static boolean get(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+    
+    /**
+     * Activates an input neuron.
+     * 
+     * @param bits The packed input bits.
+     * @param index The index of the input neuron.
+     */
+    public static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+    
+    /**
+     * Counts the active input neurons.
+     * 
+     * @param bits The packed input bits.
+     * @return The number of set bits.
+     */
+    public static int count(long[] bits) {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+    
+    /**
+     * Converts RGB values into input bits.
+     * Every pixel darker than white activates its input neuron.
+     * 
+     * @param pixels Array of integer RGB values.
+     * @param bits Receives the packed input bits.
+     */
+    public static void fromPixels(int[] pixels, long[] bits) {
+        Arrays.fill(bits, 0L);
+        for (int i = 0; i < pixels.length; i++) {
+            if (pixels[i] < -1) {
+                InputBits.set(bits, i);
+            }
+        }
+    }
+    
+}
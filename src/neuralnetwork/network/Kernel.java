@@ -0,0 +1,93 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork.network;
+
+/**
+ * Computes the output signals of a layer of neurons for a binary input.
+ * 
+ * The input is packed into an array of {@code long} words, one bit per input
+ * neuron (see {@link InputBits}). Implementations produce the same signals as
+ * {@link Neuron#calculateSignal()} and must be safe for use by several threads.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public interface Kernel {
+    
+    /**
+     * Returns the number of input neurons.
+     * @return The number of inputs.
+     */
+    int inputs();
+    
+    /**
+     * Returns the number of output neurons.
+     * @return The number of outputs.
+     */
+    int outputs();
+    
+    /**
+     * Calculates the output signals for the given input.
+     * 
+     * @param input The packed input bits.
+     * @param scores Receives one signal per output neuron.
+     */
+    void score(long[] input, double[] scores);
+    
+    /**
+     * Calculates the output signals and returns the strongest output neuron.
+     * On equal signals, the neuron with the lower index wins.
+     * 
+     * @param input The packed input bits.
+     * @param scores Receives one signal per output neuron.
+     * @return The index of the output neuron with the highest signal.
+     */
+    default int classify(long[] input, double[] scores) {
+        this.score(input, scores);
+        int highest = 0;
+        for (int i = 1; i < this.outputs(); i++) {
+            if (scores[i] > scores[highest]) {
+                highest = i;
+            }
+        }
+        return highest;
+    }
+    
+    /**
+     * Calculates the output signals and ranks them, see {@link Ranking}.
+     * The ranking and its confidences are calculated in the same pass.
+     * 
+     * @param input The packed input bits.
+     * @param ranking Receives the signals, the strongest output neurons and their confidences.
+     * @throws IllegalArgumentException If the ranking was created for another number of output neurons.
+     */
+    default void rank(long[] input, Ranking ranking) {
+        ranking.check(this);
+        this.score(input, ranking.scores());
+        ranking.rankScores();
+    }
+    
+}
@@ -0,0 +1,265 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork.network;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates a {@link Kernel} class for a frozen set of weights.
+ * 
+ * The generated class contains the weights as constants. For every input it
+ * extracts the input bit, multiplies it with the weight and adds the product
+ * to the signal, in the same order as {@link Neuron#calculateSignal()}. Since
+ * there are no branches and no loads of weights, the JIT compiles a straight
+ * sequence of arithmetic, while the results stay identical to the interpreted
+ * network. Weights equal to zero are left out, as they never change a signal.
+ * 
+ * The inputs are split into ranges handled by separate methods, keeping every
+ * method below the size limit of the JIT compiler. The class is defined as
+ * hidden class, so it is unloaded together with the kernel.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public final class KernelCompiler {
+    
+    /**
+     * The maximum bytecode size of a generated method. The JIT compiler skips
+     * methods larger than 8000 bytes.
+     */
+    private static final int METHOD_SIZE = 7500;
+    
+    /**
+     * The local holding the bit of the current input in the generated methods.
+     * Locals 0 to 3 hold the input bits, the signals and the current word.
+     */
+    private static final int BIT = 4;
+    
+    /**
+     * The first local holding a signal in the generated methods.
+     */
+    private static final int SUMS = 6;
+    
+    /**
+     * The number of random inputs checked after compiling.
+     */
+    private static final int CHECKS = 1000;
+    
+    /**
+     * The internal name of the generated class.
+     */
+    private static final String NAME = "neuralnetwork/network/CompiledKernel";
+    
+    /**
+     * The descriptor of the generated methods adding a range of inputs to the signals.
+     */
+    private static final String PART = "([J[D)V";
+    
+    /**
+     * Not instantiable.
+     */
+    private KernelCompiler() {
+    }
+    
+    /**
+     * Generates a kernel for the given weights and checks it against a network
+     * of {@link Neuron}s.
+     * 
+     * @param weights The weights, one row per output neuron. Not referenced by the kernel.
+     * @return The generated kernel.
+     * @throws IllegalArgumentException If there are too many weights for a single class.
+     * @throws IllegalStateException If the generated kernel does not reproduce the network exactly.
+     */
+    public static Kernel compile(double[][] weights) {
+        Kernel kernel;
+        try {
+            Class<?> type = MethodHandles.lookup().defineHiddenClass(KernelCompiler.generate(weights), true).lookupClass();
+            kernel = (Kernel) type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Generated kernel could not be loaded", ex);
+        }
+        Random random = new Random(1);
+        long[][] inputs = new long[KernelCompiler.CHECKS][];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = InputBits.create(kernel.inputs());
+            for (int j = 0; j < kernel.inputs(); j++) {
+                if (i == 1 || random.nextInt(4) == 0) {
+                    InputBits.set(inputs[i], j);
+                }
+            }
+        }
+        int mismatch = KernelCompiler.verify(kernel, weights, inputs);
+        if (mismatch >= 0) {
+            throw new IllegalStateException("Generated kernel differs from the network for input " + mismatch);
+        }
+        return kernel;
+    }
+    
+    /**
+     * Compares the signals of a kernel with those of a network of {@link Neuron}s
+     * and {@link Connection}s with the same weights.
+     * 
+     * @param kernel The kernel to check.
+     * @param weights The weights, one row per output neuron.
+     * @param inputs The packed input bits to check.
+     * @return The index of the first input with a differing signal, or -1 if
+     *         all signals are bit-identical.
+     */
+    public static int verify(Kernel kernel, double[][] weights, long[][] inputs) {
+        Neuron[] inputNeurons = new Neuron[weights[0].length];
+        for (int i = 0; i < inputNeurons.length; i++) {
+            inputNeurons[i] = new Neuron();
+        }
+        Neuron[] outputNeurons = new Neuron[weights.length];
+        for (int i = 0; i < outputNeurons.length; i++) {
+            outputNeurons[i] = new Neuron();
+            outputNeurons[i].connections = new Connection[inputNeurons.length];
+            for (int j = 0; j < inputNeurons.length; j++) {
+                outputNeurons[i].connections[j] = new Connection(inputNeurons[j]);
+                outputNeurons[i].connections[j].setWeight(weights[i][j]);
+            }
+        }
+        double[] scores = new double[kernel.outputs()];
+        for (int n = 0; n < inputs.length; n++) {
+            for (int i = 0; i < inputNeurons.length; i++) {
+                inputNeurons[i].setSignal(InputBits.get(inputs[n], i) ? 1.0 : 0.0);
+            }
+            Arrays.fill(scores, Double.NaN);
+            kernel.score(inputs[n], scores);
+            for (int i = 0; i < outputNeurons.length; i++) {
+                outputNeurons[i].calculateSignal();
+                if (Double.doubleToRawLongBits(outputNeurons[i].getSignal()) != Double.doubleToRawLongBits(scores[i])) {
+                    return n;
+                }
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Generates the class file of a kernel.
+     * 
+     * {@code score} clears the signals, calls the generated methods for all ranges
+     * of inputs one after another and finally divides the signals by the number
+     * of inputs, just like {@link Neuron#calculateSignal()}.
+     * 
+     * @param weights The weights, one row per output neuron.
+     * @return The bytes of the class file.
+     */
+    private static byte[] generate(double[][] weights) {
+        int outputs = weights.length;
+        int inputs = weights[0].length;
+        if (KernelCompiler.SUMS + 2 * outputs > 0x100) {
+            throw new IllegalArgumentException("Too many output neurons");
+        }
+        ClassFile file = new ClassFile(KernelCompiler.NAME, "java/lang/Object", "neuralnetwork/network/Kernel");
+        
+        ClassFile.Code init = new ClassFile.Code()
+                .op(ClassFile.ALOAD_0)
+                .op(ClassFile.INVOKESPECIAL, file.methodRef(file.superClass(), "<init>", "()V"))
+                .op(ClassFile.RETURN);
+        file.method(0x0001, "<init>", "()V", init, 1, 1);
+        file.method(0x0001, "inputs", "()I", new ClassFile.Code().op(ClassFile.LDC_W, file.integer(inputs)).op(ClassFile.IRETURN), 1, 1);
+        file.method(0x0001, "outputs", "()I", new ClassFile.Code().op(ClassFile.LDC_W, file.integer(outputs)).op(ClassFile.IRETURN), 1, 1);
+        
+        ClassFile.Code score = new ClassFile.Code();
+        for (int i = 0; i < outputs; i++) {
+            score.op(ClassFile.ALOAD_2).push(i).op(ClassFile.DCONST_0).op(ClassFile.DASTORE);
+        }
+        int size = Math.max(1, (KernelCompiler.METHOD_SIZE - 12 * outputs) / (9 + 11 * outputs));
+        for (int start = 0, part = 0; start < inputs; start += size, part++) {
+            String name = "signals" + part;
+            file.method(0x000a, name, KernelCompiler.PART, KernelCompiler.part(file, weights, start, Math.min(inputs, start + size)),
+                    6, KernelCompiler.SUMS + 2 * outputs);
+            score.op(ClassFile.ALOAD_1).op(ClassFile.ALOAD_2).op(ClassFile.INVOKESTATIC, file.methodRef(file.thisClass(), name, KernelCompiler.PART));
+        }
+        int divisor = file.doubleConstant(inputs);
+        for (int i = 0; i < outputs; i++) {
+            score.op(ClassFile.ALOAD_2).push(i).op(ClassFile.DUP2).op(ClassFile.DALOAD)
+                    .op(ClassFile.LDC2_W, divisor).op(ClassFile.DDIV).op(ClassFile.DASTORE);
+        }
+        score.op(ClassFile.RETURN);
+        file.method(0x0001, "score", "([J[D)V", score, 6, 3);
+        return file.toByteArray();
+    }
+    
+    /**
+     * Generates a method adding the products of a range of inputs to all signals.
+     * 
+     * The method takes the input bits and the signals so far, which are kept in
+     * locals while the range is processed. Per input, the bit is extracted once
+     * as {@code (double) ((word >>> bit) & 1)}, and then added to each signal as
+     * {@code sum + bit * weight}. The signals of different output neurons do not
+     * depend on each other, so the processor can calculate them in parallel.
+     * 
+     * @param file The class file holding the constants.
+     * @param weights The weights, one row per output neuron.
+     * @param start The first input.
+     * @param end The input after the last.
+     * @return The bytecode.
+     */
+    private static ClassFile.Code part(ClassFile file, double[][] weights, int start, int end) {
+        ClassFile.Code code = new ClassFile.Code();
+        for (int i = 0; i < weights.length; i++) {
+            code.op(ClassFile.ALOAD_1).push(i).op(ClassFile.DALOAD).local(ClassFile.DSTORE, KernelCompiler.SUMS + 2 * i);
+        }
+        int word = -1;
+        for (int j = start; j < end; j++) {
+            boolean used = false;
+            for (double[] row : weights) {
+                used |= row[j] != 0.0;
+            }
+            if (!used) {
+                continue;
+            }
+            if (j >> 6 != word) {
+                word = j >> 6;
+                code.op(ClassFile.ALOAD_0).push(word).op(ClassFile.LALOAD).op(ClassFile.LSTORE_2);
+            }
+            code.op(ClassFile.LLOAD_2);
+            if ((j & 63) != 0) {
+                code.push(j & 63).op(ClassFile.LUSHR);
+            }
+            code.op(ClassFile.LCONST_1).op(ClassFile.LAND).op(ClassFile.L2D).local(ClassFile.DSTORE, KernelCompiler.BIT);
+            for (int i = 0; i < weights.length; i++) {
+                if (weights[i][j] != 0.0) {
+                    code.local(ClassFile.DLOAD, KernelCompiler.SUMS + 2 * i)
+                            .local(ClassFile.DLOAD, KernelCompiler.BIT)
+                            .op(ClassFile.LDC2_W, file.doubleConstant(weights[i][j]))
+                            .op(ClassFile.DMUL).op(ClassFile.DADD)
+                            .local(ClassFile.DSTORE, KernelCompiler.SUMS + 2 * i);
+                }
+            }
+        }
+        for (int i = 0; i < weights.length; i++) {
+            code.op(ClassFile.ALOAD_1).push(i).local(ClassFile.DLOAD, KernelCompiler.SUMS + 2 * i).op(ClassFile.DASTORE);
+        }
+        return code.op(ClassFile.RETURN);
+    }
+    
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork.network;
+
+/**
+ * Describes a trained network: the size of its input images, an optional
+ * {@link ConvolutionFrontEnd} and the weights of the output neurons.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public final class Model {
+    
+    /**
+     * The width of the input images.
+     */
+    public final int width;
+    
+    /**
+     * The height of the input images.
+     */
+    public final int height;
+    
+    /**
+     * The front end extracting features from the images, or null if the
+     * output neurons are connected to the pixels directly.
+     */
+    public final ConvolutionFrontEnd frontEnd;
+    
+    /**
+     * The weights, one row per output neuron.
+     */
+    public final double[][] weights;
+    
+    /**
+     * Creates a new Model. The weights are not copied.
+     * 
+     * @param width The width of the input images.
+     * @param height The height of the input images.
+     * @param frontEnd The front end, or null.
+     * @param weights The weights, one row per output neuron.
+     */
+    public Model(int width, int height, ConvolutionFrontEnd frontEnd, double[][] weights) {
+        this.width = width;
+        this.height = height;
+        this.frontEnd = frontEnd;
+        this.weights = weights;
+    }
+    
+    /**
+     * Creates a kernel classifying input images with this model.
+     * 
+     * Wide output layers of at least {@link ShardedKernel#MIN_SHARD_SIZE} neurons
+     * are calculated by a {@link ShardedKernel}.
+     * 
+     * @return A {@link DenseKernel} or {@link ShardedKernel}, combined with the
+     *         front end if there is one.
+     */
+    public Kernel createKernel() {
+        Kernel kernel = this.weights.length >= ShardedKernel.MIN_SHARD_SIZE
+                ? ShardedKernel.create(this.weights)
+                : new DenseKernel(this.weights);
+        return this.frontEnd == null ? kernel : this.frontEnd.attach(kernel);
+    }
+    
+}
@@ -0,0 +1,197 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork.network;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes a {@link Model} in a compact binary format.
+ * 
+ * A model file starts with a magic number, a format version and the number of
+ * rows (output neurons) and columns (input neurons). It continues with the size
+ * of the input images and the {@link ConvolutionFrontEnd}, if any, and ends with
+ * the weights in row order. Files of version 1 are rejected: they contain no
+ * image size, and their weights were trained on transposed images.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public final class ModelFile {
+    
+    /**
+     * Identifies model files ("NNWT").
+     */
+    private static final int MAGIC = 0x4E4E5754;
+    
+    /**
+     * The current version of the file format.
+     */
+    private static final int VERSION = 2;
+    
+    /**
+     * The oldest version of the file format that can be read. Older files
+     * stored the pixels column by column.
+     */
+    private static final int MIN_VERSION = 2;
+    
+    /**
+     * The size of the file header in bytes.
+     */
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+    
+    private ModelFile() {
+    }
+    
+    /**
+     * Writes the given model to a file, replacing any existing content.
+     * The data is forced to the storage device before this method returns.
+     * 
+     * @param model The model to write.
+     * @param file The file to write.
+     * @throws IOException If the file could not be written.
+     */
+    public static void write(Model model, Path file) throws IOException {
+        double[][] weights = model.weights;
+        int rows = weights.length;
+        int columns = rows > 0 ? weights[0].length : 0;
+        double[][] filters = model.frontEnd == null ? new double[0][] : model.frontEnd.getFilters();
+        int filterSize = filters.length > 0 ? filters[0].length : 0;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 5 * Integer.BYTES
+                + (filters.length * filterSize + rows * columns) * Double.BYTES);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(columns);
+        buffer.putInt(model.width).putInt(model.height).putInt(filters.length);
+        if (model.frontEnd != null) {
+            buffer.putInt(model.frontEnd.kernelSize).putInt(model.frontEnd.poolSize);
+        } else {
+            buffer.putInt(0).putInt(0);
+        }
+        for (double[] row : filters) {
+            buffer.asDoubleBuffer().put(row);
+            buffer.position(buffer.position() + row.length * Double.BYTES);
+        }
+        for (double[] row : weights) {
+            buffer.asDoubleBuffer().put(row);
+            buffer.position(buffer.position() + row.length * Double.BYTES);
+        }
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+    
+    /**
+     * Reads a model file.
+     * 
+     * @param file The file to read.
+     * @return The model stored in the file.
+     * @throws IOException If the file could not be read or is no valid model file.
+     */
+    public static Model read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt model file: " + file);
+            }
+            ByteBuffer data = ByteBuffer.allocate((int) channel.size());
+            readFully(channel, data);
+            if (data.remaining() < HEADER_SIZE) {
+                throw new IOException("Not a model file: " + file);
+            }
+            int magic = data.getInt();
+            int version = data.getInt();
+            if (magic != MAGIC || version < 1 || version > VERSION) {
+                throw new IOException("Not a model file: " + file);
+            }
+            if (version < MIN_VERSION) {
+                throw new IOException("Outdated model file (version " + version + "), the network has to be trained again: " + file);
+            }
+            int rows = data.getInt();
+            int columns = data.getInt();
+            try {
+                int width = data.getInt();
+                int height = data.getInt();
+                int filterCount = data.getInt();
+                int kernelSize = data.getInt();
+                int poolSize = data.getInt();
+                if ((long) filterCount * kernelSize * kernelSize * Double.BYTES > data.remaining()) {
+                    throw new IOException("Corrupt model file: " + file);
+                }
+                ConvolutionFrontEnd frontEnd = null;
+                if (filterCount > 0) {
+                    double[][] filters = new double[filterCount][kernelSize * kernelSize];
+                    readRows(data, filters);
+                    frontEnd = new ConvolutionFrontEnd(width, height, kernelSize, poolSize, filters);
+                }
+                if (rows < 1 || columns < 1 || data.remaining() != (long) rows * columns * Double.BYTES
+                        || columns != (frontEnd == null ? width * height : frontEnd.outputs())) {
+                    throw new IOException("Corrupt model file: " + file);
+                }
+                double[][] weights = new double[rows][columns];
+                readRows(data, weights);
+                return new Model(width, height, frontEnd, weights);
+            } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException ex) {
+                throw new IOException("Corrupt model file: " + file, ex);
+            }
+        }
+    }
+    
+    /**
+     * Fills the given rows with doubles from the buffer.
+     * 
+     * @param data The buffer to read from.
+     * @param rows The rows to fill.
+     */
+    private static void readRows(ByteBuffer data, double[][] rows) {
+        for (double[] row : rows) {
+            data.asDoubleBuffer().get(row);
+            data.position(data.position() + row.length * Double.BYTES);
+        }
+    }
+    
+    /**
+     * Fills the given buffer completely from the channel and flips it.
+     * 
+     * @param channel The channel to read from.
+     * @param buffer The buffer to fill.
+     * @throws IOException If the channel ends before the buffer is full.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork.network;
+
+import java.util.Arrays;
+
+/**
+ * The output neurons of a network as plain weight arrays, trained without
+ * {@link Neuron} and {@link Connection} objects.
+ * 
+ * The signals are calculated like in a {@link DenseKernel}, and training
+ * follows the rule of the {@link Connection}s: the weights of the correct
+ * output neuron are increased for every active input. Both produce exactly the
+ * same numbers as the neurons, so a run can be repeated bit for bit.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public class OutputLayer {
+    
+    /**
+     * The weights, one row per output neuron. Not copied, so callers can
+     * replace the values between training steps.
+     */
+    private final double[][] weights;
+    
+    /**
+     * Creates a new OutputLayer with all weights set to zero.
+     * 
+     * @param outputs The number of output neurons.
+     * @param inputs The number of input neurons.
+     */
+    public OutputLayer(int outputs, int inputs) {
+        this.weights = new double[outputs][inputs];
+    }
+    
+    /**
+     * Returns the weights being trained.
+     * @return The weights, one row per output neuron.
+     */
+    public double[][] getWeights() {
+        return this.weights;
+    }
+    
+    /**
+     * Sets all weights to zero.
+     */
+    public void clear() {
+        for (double[] row : this.weights) {
+            Arrays.fill(row, 0.0);
+        }
+    }
+    
+    /**
+     * Returns the output neuron with the highest signal for the given input.
+     * On equal signals, the neuron with the lower index wins.
+     * 
+     * @param input The packed input bits.
+     * @return The index of the strongest output neuron.
+     */
+    public int classify(long[] input) {
+        int highest = 0;
+        double best = 0.0;
+        for (int i = 0; i < this.weights.length; i++) {
+            double signal = DenseKernel.signal(this.weights[i], 0, this.weights[i].length, input);
+            if (i == 0 || signal > best) {
+                highest = i;
+                best = signal;
+            }
+        }
+        return highest;
+    }
+    
+    /**
+     * Increases the weights of an output neuron for every active input.
+     * 
+     * @param input The packed input bits.
+     * @param output The output neuron that should have been recognized.
+     * @param correct True if it was recognized, selecting {@link Connection#INCREASE_SUCCESS}
+     *        instead of {@link Connection#INCREASE_FAILURE}.
+     */
+    public void train(long[] input, int output, boolean correct) {
+        double increase = correct ? Connection.INCREASE_SUCCESS : Connection.INCREASE_FAILURE;
+        double[] row = this.weights[output];
+        for (int w = 0; w < input.length; w++) {
+            long word = input[w];
+            while (word != 0) {
+                row[(w << 6) + Long.numberOfTrailingZeros(word)] += increase;
+                word &= word - 1;
+            }
+        }
+    }
+    
+}
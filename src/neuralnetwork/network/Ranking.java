@@ -0,0 +1,299 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork.network;
+
+/**
+ * A reusable buffer receiving the ranking of the output neurons for an input:
+ * the signals of all output neurons, the {@code k} strongest of them and their
+ * confidences.
+ * 
+ * The confidences are the softmax of the signals at a given temperature. The
+ * ranking and the softmax are calculated in a single pass over the signals, so
+ * accepting or rejecting a result costs no additional pass and no allocation.
+ * Since the signals are small, a suitable temperature should be determined with
+ * {@link #calibrate(Kernel, long[][], int[])}.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public final class Ranking {
+    
+    /**
+     * The signals of all output neurons.
+     */
+    private final double[] scores;
+    
+    /**
+     * The strongest output neurons, strongest first.
+     */
+    private final int[] classes;
+    
+    /**
+     * The confidence of each output neuron in {@code classes}.
+     */
+    private final double[] confidences;
+    
+    /**
+     * Divides the signals before the softmax. Lower temperatures make the
+     * confidences more decisive.
+     */
+    private final double temperature;
+    
+    /**
+     * The number of ranked output neurons.
+     */
+    private int size = 0;
+    
+    /**
+     * Receives the strongest output neurons of each part of a {@link ShardedKernel}.
+     */
+    int[] candidates = new int[0];
+    
+    /**
+     * Receives the highest signal and the softmax sum of each part of a {@link ShardedKernel}.
+     */
+    double[] partials = new double[0];
+    
+    /**
+     * Creates a new Ranking.
+     * 
+     * @param outputs The number of output neurons.
+     * @param k The maximum number of ranked output neurons, at least one.
+     * @param temperature Divides the signals before the softmax, greater than zero.
+     */
+    public Ranking(int outputs, int k, double temperature) {
+        if (k < 1) {
+            throw new IllegalArgumentException("At least one output neuron must be ranked");
+        }
+        if (!(temperature > 0.0)) {
+            throw new IllegalArgumentException("Temperature must be positive");
+        }
+        this.scores = new double[outputs];
+        this.classes = new int[Math.min(k, outputs)];
+        this.confidences = new double[this.classes.length];
+        this.temperature = temperature;
+    }
+    
+    /**
+     * Returns the array receiving the signals of all output neurons.
+     * @return The signals.
+     */
+    public double[] scores() {
+        return this.scores;
+    }
+    
+    /**
+     * Returns the temperature of the softmax.
+     * @return The temperature.
+     */
+    public double temperature() {
+        return this.temperature;
+    }
+    
+    /**
+     * Returns the number of ranked output neurons.
+     * @return The number of ranks, at most {@code k}.
+     */
+    public int size() {
+        return this.size;
+    }
+    
+    /**
+     * Returns a ranked output neuron.
+     * 
+     * @param rank The rank, zero for the strongest.
+     * @return The index of the output neuron.
+     */
+    public int get(int rank) {
+        return this.classes[rank];
+    }
+    
+    /**
+     * Returns the confidence of a ranked output neuron.
+     * 
+     * @param rank The rank, zero for the strongest.
+     * @return The softmax probability of the output neuron, between 0 and 1.
+     */
+    public double confidence(int rank) {
+        return this.confidences[rank];
+    }
+    
+    /**
+     * Returns the array receiving the ranked output neurons.
+     * @return The ranking array of length {@code k}.
+     */
+    int[] classes() {
+        return this.classes;
+    }
+    
+    /**
+     * Checks that this ranking has room for the signals of a kernel.
+     * 
+     * @param kernel The kernel calculating the signals.
+     * @throws IllegalArgumentException If the number of output neurons differs.
+     */
+    void check(Kernel kernel) {
+        if (this.scores.length != kernel.outputs()) {
+            throw new IllegalArgumentException("Ranking for " + this.scores.length + " output neurons, kernel has " + kernel.outputs());
+        }
+    }
+    
+    /**
+     * Ranks the signals in {@link #scores()} and calculates the confidences.
+     * 
+     * A single pass keeps the {@code k} strongest output neurons and the sum of
+     * the softmax terms, which is rescaled whenever a new maximum is found.
+     * On equal signals, the output neuron with the lower index ranks first.
+     */
+    public void rankScores() {
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0.0;
+        int count = 0;
+        for (int i = 0; i < this.scores.length; i++) {
+            double score = this.scores[i];
+            if (score > max) {
+                sum = sum * Math.exp((max - score) / this.temperature) + 1.0;
+                max = score;
+            } else {
+                sum += Math.exp((score - max) / this.temperature);
+            }
+            count = Ranking.insert(this.classes, 0, count, this.classes.length, i, this.scores);
+        }
+        this.finish(count, max, sum);
+    }
+    
+    /**
+     * Completes a ranking whose output neurons are already in {@link #classes()}.
+     * 
+     * @param count The number of ranked output neurons.
+     * @param max The highest signal.
+     * @param sum The sum of {@code exp((score - max) / temperature)} over all signals.
+     */
+    void finish(int count, double max, double sum) {
+        this.size = count;
+        for (int i = 0; i < count; i++) {
+            this.confidences[i] = Math.exp((this.scores[this.classes[i]] - max) / this.temperature) / sum;
+        }
+    }
+    
+    /**
+     * Inserts an output neuron into a ranking, strongest first, if it is among
+     * the {@code k} strongest so far. On equal signals, the lower index ranks first.
+     * 
+     * @param ranking The ranking.
+     * @param first The position of the ranking in the array.
+     * @param count The number of output neurons ranked so far.
+     * @param k The maximum number of output neurons in the ranking.
+     * @param output The output neuron to insert.
+     * @param scores The signals of all output neurons.
+     * @return The new number of output neurons in the ranking.
+     */
+    static int insert(int[] ranking, int first, int count, int k, int output, double[] scores) {
+        double score = scores[output];
+        int position = count;
+        while (position > 0) {
+            int other = ranking[first + position - 1];
+            if (scores[other] > score || scores[other] == score && other < output) {
+                break;
+            }
+            position--;
+        }
+        if (position >= k) {
+            return count;
+        }
+        int end = Math.min(count, k - 1);
+        System.arraycopy(ranking, first + position, ranking, first + position + 1, end - position);
+        ranking[first + position] = output;
+        return end + 1;
+    }
+    
+    /**
+     * Finds the temperature whose confidences fit the given labelled inputs best,
+     * by minimising their negative log likelihood.
+     * 
+     * The inputs should not be the ones the network was trained on: if all of
+     * them are classified correctly, the best fit is the lowest temperature.
+     * The temperature is therefore kept above a tenth of the average difference
+     * between the strongest and the weakest signal, so the confidences never
+     * collapse to exactly one and zero.
+     * 
+     * @param kernel The kernel calculating the signals.
+     * @param inputs The packed input bits.
+     * @param labels The correct output neuron of each input.
+     * @return The calibrated temperature, or 1 if all signals are equal.
+     */
+    public static double calibrate(Kernel kernel, long[][] inputs, int[] labels) {
+        double[][] scores = new double[inputs.length][kernel.outputs()];
+        double spread = 0.0;
+        for (int i = 0; i < inputs.length; i++) {
+            kernel.score(inputs[i], scores[i]);
+            double max = Double.NEGATIVE_INFINITY;
+            double min = Double.POSITIVE_INFINITY;
+            for (double score : scores[i]) {
+                max = Math.max(max, score);
+                min = Math.min(min, score);
+            }
+            spread += (max - min) / inputs.length;
+        }
+        if (!(spread > 0.0)) {
+            return 1.0;
+        }
+        // Golden section search over the logarithm of the temperature
+        double low = Math.log(spread / 10);
+        double high = Math.log(spread * 100);
+        double ratio = (Math.sqrt(5) - 1) / 2;
+        for (int step = 0; step < 100; step++) {
+            double a = high - ratio * (high - low);
+            double b = low + ratio * (high - low);
+            if (Ranking.loss(scores, labels, Math.exp(a)) < Ranking.loss(scores, labels, Math.exp(b))) {
+                high = b;
+            } else {
+                low = a;
+            }
+        }
+        return Math.exp((low + high) / 2);
+    }
+    
+    /**
+     * Calculates the mean negative log likelihood of the labels.
+     */
+    private static double loss(double[][] scores, int[] labels, double temperature) {
+        double loss = 0.0;
+        for (int i = 0; i < scores.length; i++) {
+            double max = Double.NEGATIVE_INFINITY;
+            for (double score : scores[i]) {
+                max = Math.max(max, score);
+            }
+            double sum = 0.0;
+            for (double score : scores[i]) {
+                sum += Math.exp((score - max) / temperature);
+            }
+            loss += Math.log(sum) - (scores[i][labels[i]] - max) / temperature;
+        }
+        return loss / scores.length;
+    }
+    
+}
@@ -0,0 +1,330 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork.network;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of classification results, keyed by the packed input bits.
+ * 
+ * Images without noise often repeat exactly, so their results can be reused
+ * instead of running the output layer again. Each result belongs to a weight
+ * version; the cache is cleared as soon as a newer version is requested.
+ * Classifiers still working with an older version bypass the cache, so they
+ * neither clear it nor store outdated results.
+ * When full, either the least recently used or the oldest entry is evicted.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public class ResultCache {
+    
+    /**
+     * Determines which entry is removed when the cache is full.
+     */
+    public enum Eviction {
+        
+        /**
+         * Removes the least recently used entry.
+         */
+        LRU,
+        
+        /**
+         * Removes the entry stored first.
+         */
+        FIFO
+        
+    }
+    
+    /**
+     * The key of a cached result: a copy of the input bits.
+     */
+    private static final class Key {
+        
+        /**
+         * The packed input bits.
+         */
+        private final long[] bits;
+        
+        /**
+         * The hash code of the bits.
+         */
+        private final int hash;
+        
+        /**
+         * Creates a new Key.
+         * 
+         * @param bits The packed input bits, not copied.
+         */
+        Key(long[] bits) {
+            this.bits = bits;
+            this.hash = Arrays.hashCode(bits);
+        }
+        
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(this.bits, ((Key) other).bits);
+        }
+        
+    }
+    
+    /**
+     * A cached result.
+     */
+    private static final class Result {
+        
+        /**
+         * The recognized output neuron.
+         */
+        private final int output;
+        
+        /**
+         * The signals of all output neurons.
+         */
+        private final double[] scores;
+        
+        /**
+         * Creates a new Result.
+         * 
+         * @param output The recognized output neuron.
+         * @param scores The signals, not copied.
+         */
+        Result(int output, double[] scores) {
+            this.output = output;
+            this.scores = scores;
+        }
+        
+    }
+    
+    /**
+     * The maximum number of entries.
+     */
+    private final int capacity;
+    
+    /**
+     * The cached results, ordered for eviction.
+     */
+    private final LinkedHashMap<Key, Result> entries;
+    
+    /**
+     * The eviction policy.
+     */
+    private final Eviction eviction;
+    
+    /**
+     * The weight version of all cached results.
+     */
+    private long version = -1;
+    
+    /**
+     * Counts the lookups answered from the cache.
+     */
+    private long hits = 0;
+    
+    /**
+     * Counts the lookups not answered from the cache.
+     */
+    private long misses = 0;
+    
+    /**
+     * Counts the entries removed because the cache was full.
+     */
+    private long evictions = 0;
+    
+    /**
+     * Counts the times the cache was cleared because the weights changed.
+     */
+    private long invalidations = 0;
+    
+    /**
+     * Creates a new ResultCache.
+     * 
+     * @param capacity The maximum number of entries, at least one.
+     * @param eviction Determines which entry is removed when the cache is full.
+     */
+    public ResultCache(int capacity, Eviction eviction) {
+        this.capacity = Math.max(1, capacity);
+        this.eviction = eviction;
+        this.entries = new LinkedHashMap<Key, Result>(16, 0.75f, eviction == Eviction.LRU) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Result> eldest) {
+                if (this.size() > ResultCache.this.capacity) {
+                    ResultCache.this.evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+    
+    /**
+     * Creates the cache configured by system properties.
+     * 
+     * The cache is enabled by setting {@code neuralnetwork.cache.size} to the
+     * maximum number of entries; {@code neuralnetwork.cache.eviction} selects
+     * {@code lru} (default) or {@code fifo}.
+     * 
+     * @return The new cache, or null if disabled.
+     */
+    public static ResultCache fromSystemProperties() {
+        int size = Integer.getInteger("neuralnetwork.cache.size", 0);
+        if (size <= 0) {
+            return null;
+        }
+        String eviction = System.getProperty("neuralnetwork.cache.eviction", "lru");
+        return new ResultCache(size, eviction.equalsIgnoreCase("fifo") ? Eviction.FIFO : Eviction.LRU);
+    }
+    
+    /**
+     * Looks up the result for the given input.
+     * 
+     * @param version The version of the weights the result must belong to.
+     * @param input The packed input bits.
+     * @param scores Receives the cached signals on a hit.
+     * @return The recognized output neuron, or -1 if the input is not cached.
+     */
+    public synchronized int get(long version, long[] input, double[] scores) {
+        Result result = this.validate(version) ? this.entries.get(new Key(input)) : null;
+        if (result == null) {
+            this.misses++;
+            return -1;
+        }
+        this.hits++;
+        System.arraycopy(result.scores, 0, scores, 0, result.scores.length);
+        return result.output;
+    }
+    
+    /**
+     * Stores the result for the given input.
+     * 
+     * @param version The version of the weights the result was calculated with.
+     * @param input The packed input bits, copied.
+     * @param output The recognized output neuron.
+     * @param scores The signals of all output neurons, copied.
+     */
+    public synchronized void put(long version, long[] input, int output, double[] scores) {
+        if (this.validate(version)) {
+            this.entries.put(new Key(input.clone()), new Result(output, scores.clone()));
+        }
+    }
+    
+    /**
+     * Clears the cache if the weights have changed. The version only ever moves
+     * forward.
+     * 
+     * @param version The version of the weights used by the caller.
+     * @return True if the cached results belong to this version, false if it is
+     *         older and the cache has to be bypassed.
+     */
+    private boolean validate(long version) {
+        if (version < this.version) {
+            return false;
+        }
+        if (version > this.version) {
+            if (!this.entries.isEmpty()) {
+                this.entries.clear();
+                this.invalidations++;
+            }
+            this.version = version;
+        }
+        return true;
+    }
+    
+    /**
+     * Returns the eviction policy.
+     * @return The eviction policy.
+     */
+    public Eviction getEviction() {
+        return this.eviction;
+    }
+    
+    /**
+     * Returns the number of cached results.
+     * @return The number of entries.
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+    
+    /**
+     * Returns the number of lookups answered from the cache.
+     * @return The number of hits.
+     */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+    
+    /**
+     * Returns the number of lookups not answered from the cache.
+     * @return The number of misses.
+     */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+    
+    /**
+     * Returns the number of entries removed because the cache was full.
+     * @return The number of evictions.
+     */
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+    
+    /**
+     * Returns the number of times the cache was cleared because the weights changed.
+     * @return The number of invalidations.
+     */
+    public synchronized long getInvalidations() {
+        return this.invalidations;
+    }
+    
+    /**
+     * Returns the fraction of lookups answered from the cache.
+     * @return A value between 0 and 1, zero if nothing was looked up yet.
+     */
+    public synchronized double hitRate() {
+        long lookups = this.hits + this.misses;
+        return lookups == 0 ? 0.0 : (double) this.hits / lookups;
+    }
+    
+    /**
+     * Resets all counters.
+     */
+    public synchronized void resetStatistics() {
+        this.hits = 0;
+        this.misses = 0;
+        this.evictions = 0;
+        this.invalidations = 0;
+    }
+    
+}
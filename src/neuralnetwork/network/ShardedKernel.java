@@ -0,0 +1,293 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork.network;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A {@link Kernel} for wide output layers, splitting the output neurons into
+ * shards calculated by several threads.
+ * 
+ * Each shard stores its weights column by column, so every active input adds
+ * one contiguous column to the signals of the shard. Besides the signals, each
+ * shard determines its strongest output neurons; these are merged into the
+ * overall ranking, so the caller does not have to scan all signals again.
+ * The signals are identical to those of a {@link DenseKernel}.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public class ShardedKernel implements Kernel {
+    
+    /**
+     * The smallest number of output neurons per shard. Smaller shards cost more
+     * to hand to another thread than they take to calculate.
+     */
+    public static final int MIN_SHARD_SIZE = 256;
+    
+    /**
+     * The weights of each shard, column by column.
+     */
+    private final double[][] columns;
+    
+    /**
+     * The first output neuron of each shard, followed by the number of output neurons.
+     */
+    private final int[] shardStart;
+    
+    /**
+     * The number of input neurons.
+     */
+    private final int inputs;
+    
+    /**
+     * The number of output neurons.
+     */
+    private final int outputs;
+    
+    /**
+     * The pool calculating the shards.
+     */
+    private final ForkJoinPool pool;
+    
+    /**
+     * The signal buffer of each shard, per thread.
+     */
+    private final ThreadLocal<double[]> buffers;
+    
+    /**
+     * Creates a new ShardedKernel from a copy of the given weights.
+     * 
+     * @param weights The weights, one row per output neuron.
+     * @param shards The number of shards.
+     * @param pool The pool calculating the shards besides the calling thread.
+     */
+    public ShardedKernel(double[][] weights, int shards, ForkJoinPool pool) {
+        this.outputs = weights.length;
+        this.inputs = weights[0].length;
+        this.pool = pool;
+        shards = Math.max(1, Math.min(shards, this.outputs));
+        this.columns = new double[shards][];
+        this.shardStart = new int[shards + 1];
+        int largest = 0;
+        for (int s = 0; s < shards; s++) {
+            int start = (int) ((long) this.outputs * s / shards);
+            int end = (int) ((long) this.outputs * (s + 1) / shards);
+            int rows = end - start;
+            this.shardStart[s] = start;
+            this.columns[s] = new double[rows * this.inputs];
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < this.inputs; j++) {
+                    this.columns[s][j * rows + i] = weights[start + i][j];
+                }
+            }
+            largest = Math.max(largest, rows);
+        }
+        this.shardStart[shards] = this.outputs;
+        int size = largest;
+        this.buffers = ThreadLocal.withInitial(() -> new double[size]);
+    }
+    
+    /**
+     * Creates a ShardedKernel using all processors of the common pool, with
+     * shards of at least {@link #MIN_SHARD_SIZE} output neurons.
+     * 
+     * @param weights The weights, one row per output neuron.
+     * @return The new kernel.
+     */
+    public static ShardedKernel create(double[][] weights) {
+        int shards = Math.min(ForkJoinPool.getCommonPoolParallelism() + 1, weights.length / ShardedKernel.MIN_SHARD_SIZE);
+        return new ShardedKernel(weights, shards, ForkJoinPool.commonPool());
+    }
+    
+    @Override
+    public int inputs() {
+        return this.inputs;
+    }
+    
+    @Override
+    public int outputs() {
+        return this.outputs;
+    }
+    
+    /**
+     * Returns the number of shards.
+     * @return The number of shards.
+     */
+    public int shards() {
+        return this.shardStart.length - 1;
+    }
+    
+    @Override
+    public void score(long[] input, double[] scores) {
+        this.run(input, scores, null, 0, null, 0.0);
+    }
+    
+    @Override
+    public int classify(long[] input, double[] scores) {
+        int[] candidates = new int[this.shards()];
+        this.run(input, scores, candidates, 1, null, 0.0);
+        int best = candidates[0];
+        for (int candidate : candidates) {
+            if (scores[candidate] > scores[best]) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * Calculates the output signals and ranks them.
+     * 
+     * Each shard ranks its own output neurons and sums its softmax terms relative
+     * to its own maximum. The partial rankings are merged, and the partial sums
+     * are rescaled to the overall maximum, so no further pass over the signals is needed.
+     * The partial results are kept in the ranking, so only the tasks of the
+     * other threads are allocated.
+     */
+    @Override
+    public void rank(long[] input, Ranking ranking) {
+        ranking.check(this);
+        int shards = this.shards();
+        int k = ranking.classes().length;
+        if (ranking.candidates.length < shards * k) {
+            ranking.candidates = new int[shards * k];
+        }
+        if (ranking.partials.length < 2 * shards) {
+            ranking.partials = new double[2 * shards];
+        }
+        int[] candidates = ranking.candidates;
+        Arrays.fill(candidates, -1);
+        double[] softmax = ranking.partials;
+        double temperature = ranking.temperature();
+        double[] scores = ranking.scores();
+        this.run(input, scores, candidates, k, softmax, temperature);
+        double max = Double.NEGATIVE_INFINITY;
+        for (int s = 0; s < shards; s++) {
+            max = Math.max(max, softmax[2 * s]);
+        }
+        double sum = 0.0;
+        for (int s = 0; s < shards; s++) {
+            if (softmax[2 * s + 1] > 0.0) {
+                sum += softmax[2 * s + 1] * Math.exp((softmax[2 * s] - max) / temperature);
+            }
+        }
+        int count = 0;
+        for (int candidate : candidates) {
+            if (candidate >= 0) {
+                count = Ranking.insert(ranking.classes(), 0, count, k, candidate, scores);
+            }
+        }
+        ranking.finish(count, max, sum);
+    }
+    
+    /**
+     * Calculates all shards. The calling thread calculates the first shard itself.
+     * 
+     * @see #shard(int, long[], double[], int[], int, double[], double)
+     */
+    private void run(long[] input, double[] scores, int[] candidates, int k, double[] softmax, double temperature) {
+        int shards = this.shards();
+        if (shards == 1) {
+            this.shard(0, input, scores, candidates, k, softmax, temperature);
+            return;
+        }
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[shards - 1];
+        for (int s = 1; s < shards; s++) {
+            int shard = s;
+            tasks[s - 1] = this.pool.submit(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    ShardedKernel.this.shard(shard, input, scores, candidates, k, softmax, temperature);
+                }
+            });
+        }
+        this.shard(0, input, scores, candidates, k, softmax, temperature);
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+    
+    /**
+     * Calculates the signals of a single shard, its strongest output neurons and
+     * its softmax terms.
+     * 
+     * @param shard The index of the shard.
+     * @param input The packed input bits.
+     * @param scores Receives the signals of the shard's output neurons.
+     * @param candidates Receives the {@code k} strongest output neurons of the shard
+     *        at position {@code shard * k}, unused positions are left unchanged.
+     * @param k The number of output neurons to rank.
+     * @param softmax Receives the highest signal of the shard and the sum of its softmax
+     *        terms at position {@code 2 * shard}, or null.
+     * @param temperature The temperature of the softmax.
+     */
+    private void shard(int shard, long[] input, double[] scores, int[] candidates, int k, double[] softmax, double temperature) {
+        int start = this.shardStart[shard];
+        int rows = this.shardStart[shard + 1] - start;
+        double[] weights = this.columns[shard];
+        double[] sums = this.buffers.get();
+        for (int i = 0; i < rows; i++) {
+            sums[i] = 0.0;
+        }
+        for (int w = 0; w < input.length; w++) {
+            long word = input[w];
+            while (word != 0) {
+                int offset = ((w << 6) + Long.numberOfTrailingZeros(word)) * rows;
+                for (int i = 0; i < rows; i++) {
+                    sums[i] += weights[offset + i];
+                }
+                word &= word - 1;
+            }
+        }
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0.0;
+        int count = 0;
+        for (int i = 0; i < rows; i++) {
+            double score = sums[i] / this.inputs;
+            scores[start + i] = score;
+            if (softmax != null) {
+                if (score > max) {
+                    sum = sum * Math.exp((max - score) / temperature) + 1.0;
+                    max = score;
+                } else {
+                    sum += Math.exp((score - max) / temperature);
+                }
+            }
+            if (k > 0) {
+                count = Ranking.insert(candidates, shard * k, count, k, start + i, scores);
+            }
+        }
+        if (softmax != null) {
+            softmax[2 * shard] = max;
+            softmax[2 * shard + 1] = sum;
+        }
+    }
+    
+}
@@ -0,0 +1,203 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork.network;
+
+import java.util.Arrays;
+
+/**
+ * A {@link Kernel} storing only the weights left after magnitude pruning.
+ * 
+ * The remaining weights are kept in compressed sparse row (CSR) format of the
+ * transposed weight matrix: the values and output indices belonging to each
+ * input neuron are stored back to back, and {@code columnStart[j]} points to the
+ * first entry of input neuron {@code j}. This way only the weights of active input
+ * neurons are visited, which intersects the remaining weights with the active
+ * pixels. Input neurons are visited in ascending order, so every signal is summed
+ * in the same order as by {@link Neuron#calculateSignal()}.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public class SparseKernel implements Kernel {
+    
+    /**
+     * The remaining weights, grouped by input neuron.
+     */
+    private final double[] values;
+    
+    /**
+     * The output neuron of each remaining weight.
+     */
+    private final int[] rows;
+    
+    /**
+     * The index of each input neuron's first entry, followed by the total number of entries.
+     */
+    private final int[] columnStart;
+    
+    /**
+     * The number of output neurons.
+     */
+    private final int outputs;
+    
+    /**
+     * The number of input neurons.
+     */
+    private final int inputs;
+    
+    /**
+     * Creates a new SparseKernel from the given weights, dropping those not kept.
+     * 
+     * @param weights The weights, one row per output neuron.
+     * @param keep Marks the weights to keep, same shape as {@code weights}.
+     */
+    private SparseKernel(double[][] weights, boolean[][] keep) {
+        this.outputs = weights.length;
+        this.inputs = weights[0].length;
+        this.columnStart = new int[this.inputs + 1];
+        int count = 0;
+        for (boolean[] row : keep) {
+            for (boolean k : row) {
+                if (k) {
+                    count++;
+                }
+            }
+        }
+        this.values = new double[count];
+        this.rows = new int[count];
+        int entry = 0;
+        for (int j = 0; j < this.inputs; j++) {
+            this.columnStart[j] = entry;
+            for (int i = 0; i < this.outputs; i++) {
+                if (keep[i][j]) {
+                    this.values[entry] = weights[i][j];
+                    this.rows[entry] = i;
+                    entry++;
+                }
+            }
+        }
+        this.columnStart[this.inputs] = entry;
+    }
+    
+    /**
+     * Prunes all weights whose magnitude is below the given threshold.
+     * Weights equal to zero are always dropped.
+     * 
+     * @param weights The weights, one row per output neuron.
+     * @param threshold The smallest magnitude to keep.
+     * @return The pruned kernel.
+     */
+    public static SparseKernel threshold(double[][] weights, double threshold) {
+        boolean[][] keep = new boolean[weights.length][weights[0].length];
+        for (int i = 0; i < weights.length; i++) {
+            for (int j = 0; j < weights[i].length; j++) {
+                double magnitude = Math.abs(weights[i][j]);
+                keep[i][j] = magnitude != 0.0 && magnitude >= threshold;
+            }
+        }
+        return new SparseKernel(weights, keep);
+    }
+    
+    /**
+     * Keeps only the weights with the highest magnitudes in each row.
+     * Weights equal to zero are always dropped.
+     * 
+     * @param weights The weights, one row per output neuron.
+     * @param k The maximum number of weights per row.
+     * @return The pruned kernel.
+     */
+    public static SparseKernel topK(double[][] weights, int k) {
+        boolean[][] keep = new boolean[weights.length][weights[0].length];
+        for (int i = 0; i < weights.length; i++) {
+            double[] magnitudes = new double[weights[i].length];
+            for (int j = 0; j < magnitudes.length; j++) {
+                magnitudes[j] = Math.abs(weights[i][j]);
+            }
+            double[] sorted = magnitudes.clone();
+            Arrays.sort(sorted);
+            double limit = k <= 0 ? Double.POSITIVE_INFINITY : sorted[Math.max(0, sorted.length - k)];
+            int kept = 0;
+            for (int j = 0; j < magnitudes.length && kept < k; j++) {
+                if (magnitudes[j] != 0.0 && magnitudes[j] > limit) {
+                    keep[i][j] = true;
+                    kept++;
+                }
+            }
+            for (int j = 0; j < magnitudes.length && kept < k; j++) {
+                if (magnitudes[j] != 0.0 && magnitudes[j] == limit) {
+                    keep[i][j] = true;
+                    kept++;
+                }
+            }
+        }
+        return new SparseKernel(weights, keep);
+    }
+    
+    /**
+     * Returns the number of weights left after pruning.
+     * @return The number of stored weights.
+     */
+    public int nonZeros() {
+        return this.values.length;
+    }
+    
+    /**
+     * Returns the fraction of weights removed by pruning.
+     * @return A value between 0 and 1.
+     */
+    public double sparsity() {
+        return 1.0 - (double) this.values.length / ((double) this.outputs() * this.inputs);
+    }
+    
+    @Override
+    public int inputs() {
+        return this.inputs;
+    }
+    
+    @Override
+    public int outputs() {
+        return this.outputs;
+    }
+    
+    @Override
+    public void score(long[] input, double[] scores) {
+        Arrays.fill(scores, 0, this.outputs, 0.0);
+        for (int w = 0; w < input.length; w++) {
+            long word = input[w];
+            while (word != 0) {
+                int column = (w << 6) + Long.numberOfTrailingZeros(word);
+                for (int e = this.columnStart[column]; e < this.columnStart[column + 1]; e++) {
+                    scores[this.rows[e]] += this.values[e];
+                }
+                word &= word - 1;
+            }
+        }
+        for (int i = 0; i < this.outputs; i++) {
+            scores[i] = scores[i] / this.inputs;
+        }
+    }
+    
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork.network;
+
+/**
+ * An immutable, versioned copy of the weights of the output neurons.
+ * 
+ * Snapshots are published by the training thread and read by any number of
+ * classifying threads. Updating a row creates a new snapshot sharing all other
+ * rows with its predecessor, so readers always see complete rows of a single
+ * version and never wait for the trainer.
+ * 
+ * A snapshot is a {@link Kernel} scoring inputs with its own rows, so no
+ * weights are copied when a new version is published or first used.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public final class WeightSnapshot implements Kernel {
+    
+    /**
+     * The version of the weights, increased by every update.
+     */
+    public final long version;
+    
+    /**
+     * The weights, one row per output neuron. Never modified.
+     */
+    private final double[][] rows;
+    
+    /**
+     * Creates a new WeightSnapshot sharing the given rows.
+     * 
+     * @param rows The rows, not copied.
+     * @param version The version of the weights.
+     */
+    private WeightSnapshot(double[][] rows, long version) {
+        this.version = version;
+        this.rows = rows;
+    }
+    
+    /**
+     * Creates a new WeightSnapshot from a copy of the given weights.
+     * 
+     * @param weights The weights, one row per output neuron.
+     * @param version The version of the weights.
+     * @return The new snapshot.
+     */
+    public static WeightSnapshot copyOf(double[][] weights, long version) {
+        double[][] rows = new double[weights.length][];
+        for (int i = 0; i < weights.length; i++) {
+            rows[i] = weights[i].clone();
+        }
+        return new WeightSnapshot(rows, version);
+    }
+    
+    /**
+     * Creates the next version with a single row replaced.
+     * 
+     * @param index The index of the output neuron.
+     * @param row The new weights of the output neuron, not copied. Must not be
+     *            modified afterwards.
+     * @return The new snapshot.
+     */
+    public WeightSnapshot withRow(int index, double[] row) {
+        double[][] rows = this.rows.clone();
+        rows[index] = row;
+        return new WeightSnapshot(rows, this.version + 1);
+    }
+    
+    /**
+     * Returns the number of output neurons.
+     * @return The number of rows.
+     */
+    @Override
+    public int outputs() {
+        return this.rows.length;
+    }
+    
+    /**
+     * Returns the number of input neurons.
+     * @return The number of columns.
+     */
+    @Override
+    public int inputs() {
+        return this.rows[0].length;
+    }
+    
+    /**
+     * Returns a single weight.
+     * 
+     * @param output The index of the output neuron.
+     * @param input The index of the input neuron.
+     * @return The weight of the connection.
+     */
+    public double get(int output, int input) {
+        return this.rows[output][input];
+    }
+    
+    /**
+     * Copies all weights into the given array.
+     * 
+     * @param weights Receives the weights, one row per output neuron.
+     */
+    public void copyTo(double[][] weights) {
+        for (int i = 0; i < this.rows.length; i++) {
+            System.arraycopy(this.rows[i], 0, weights[i], 0, this.rows[i].length);
+        }
+    }
+    
+    @Override
+    public void score(long[] input, double[] scores) {
+        int inputs = this.inputs();
+        for (int i = 0; i < this.rows.length; i++) {
+            scores[i] = DenseKernel.signal(this.rows[i], 0, inputs, input);
+        }
+    }
+    
+}
@@ -0,0 +1,64 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork.stream;
+
+/**
+ * The result of classifying a {@link Sample}.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public final class Classification {
+    
+    /**
+     * The id of the classified sample.
+     */
+    public final long id;
+    
+    /**
+     * The recognized digit.
+     */
+    public final int digit;
+    
+    /**
+     * The signals of all output neurons.
+     */
+    public final double[] scores;
+    
+    /**
+     * Creates a new Classification.
+     * 
+     * @param id The id of the classified sample.
+     * @param digit The recognized digit.
+     * @param scores The signals of all output neurons.
+     */
+    public Classification(long id, int digit, double[] scores) {
+        this.id = id;
+        this.digit = digit;
+        this.scores = scores;
+    }
+    
+}
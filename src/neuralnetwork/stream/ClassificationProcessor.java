@@ -0,0 +1,358 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2014 Pedro Hoffmann Alves
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the “Software”), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package neuralnetwork.stream;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import neuralnetwork.network.Kernel;
+
+/**
+ * Classifies a stream of {@link Sample}s and publishes a stream of {@link Classification}s.
+ * 
+ * The processor subscribes to a publisher of samples and accepts a single
+ * subscriber for the results. It never holds more than two batches of samples
+ * and results: samples are only requested from upstream while there is room in
+ * this buffer, so a slow subscriber slows down the publisher instead of filling
+ * a queue. Samples that arrive while the subscriber is busy are classified
+ * together in batches of up to {@code batchSize}.
+ * 
+ * All signals are processed by a serialized drain loop on the given executor.
+ * 
+ * @author Pedro Hoffmann Alves
+ */
+public class ClassificationProcessor implements Flow.Processor<Sample, Classification> {
+    
+    /**
+     * The network used for classification.
+     */
+    private final Kernel kernel;
+    
+    /**
+     * The maximum number of samples classified at once.
+     */
+    private final int batchSize;
+    
+    /**
+     * The executor running the drain loop.
+     */
+    private final Executor executor;
+    
+    /**
+     * Samples received from upstream and not classified yet.
+     */
+    private final Queue<Sample> inputs = new ConcurrentLinkedQueue<>();
+    
+    /**
+     * Results not delivered yet. Only accessed by the drain loop.
+     */
+    private final Queue<Classification> outputs = new ArrayDeque<>();
+    
+    /**
+     * The number of samples requested from upstream and not received yet.
+     */
+    private final AtomicLong pending = new AtomicLong();
+    
+    /**
+     * The number of results requested by the subscriber and not delivered yet.
+     */
+    private final AtomicLong demand = new AtomicLong();
+    
+    /**
+     * Counts the signals the drain loop has not processed yet.
+     */
+    private final AtomicInteger work = new AtomicInteger();
+    
+    /**
+     * The subscription to the sample publisher.
+     */
+    private volatile Flow.Subscription upstream;
+    
+    /**
+     * The subscriber receiving the results.
+     */
+    private volatile Flow.Subscriber<? super Classification> downstream;
+    
+    /**
+     * Determines whether the sample publisher has completed or failed.
+     */
+    private volatile boolean upstreamDone = false;
+    
+    /**
+     * The error to pass to the subscriber, if any.
+     */
+    private volatile Throwable error;
+    
+    /**
+     * Determines whether the subscriber has cancelled or a terminal signal was sent.
+     */
+    private volatile boolean finished = false;
+    
+    /**
+     * Creates a new ClassificationProcessor running on the common pool.
+     * 
+     * @param kernel The network used for classification.
+     * @param batchSize The maximum number of samples classified at once.
+     */
+    public ClassificationProcessor(Kernel kernel, int batchSize) {
+        this(kernel, batchSize, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Creates a new ClassificationProcessor.
+     * 
+     * @param kernel The network used for classification.
+     * @param batchSize The maximum number of samples classified at once.
+     * @param executor The executor running the drain loop.
+     */
+    public ClassificationProcessor(Kernel kernel, int batchSize, Executor executor) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.kernel = kernel;
+        this.batchSize = batchSize;
+        this.executor = executor;
+    }
+    
+    @Override
+    public void subscribe(Flow.Subscriber<? super Classification> subscriber) {
+        synchronized (this) {
+            if (this.downstream == null) {
+                this.downstream = subscriber;
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                        ClassificationProcessor.this.request(n);
+                    }
+                    
+                    @Override
+                    public void cancel() {
+                        ClassificationProcessor.this.cancel();
+                    }
+                });
+                this.schedule();
+                return;
+            }
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+            
+            @Override
+            public void cancel() {
+            }
+        });
+        subscriber.onError(new IllegalStateException("Only one subscriber is supported"));
+    }
+    
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        this.upstream = subscription;
+        if (this.finished) {
+            subscription.cancel();
+            return;
+        }
+        this.schedule();
+    }
+    
+    @Override
+    public void onNext(Sample sample) {
+        if (this.finished) {
+            return;
+        }
+        this.inputs.add(sample);
+        this.pending.decrementAndGet();
+        this.schedule();
+    }
+    
+    @Override
+    public void onError(Throwable throwable) {
+        this.error = throwable;
+        this.upstreamDone = true;
+        this.schedule();
+    }
+    
+    @Override
+    public void onComplete() {
+        this.upstreamDone = true;
+        this.schedule();
+    }
+    
+    /**
+     * Adds demand of the subscriber.
+     * 
+     * @param n The number of additional results requested.
+     */
+    private void request(long n) {
+        if (n <= 0) {
+            this.error = new IllegalArgumentException("Non-positive request: " + n);
+            Flow.Subscription subscription = this.upstream;
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        } else {
+            this.demand.getAndAccumulate(n, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+        }
+        this.schedule();
+    }
+    
+    /**
+     * Stops the stream on behalf of the subscriber.
+     */
+    private void cancel() {
+        this.finished = true;
+        Flow.Subscription subscription = this.upstream;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+    
+    /**
+     * Runs the drain loop unless it is already running.
+     */
+    private void schedule() {
+        if (this.work.getAndIncrement() == 0) {
+            this.executor.execute(this::drain);
+        }
+    }
+    
+    /**
+     * Delivers results, classifies samples and requests new ones until no
+     * further signals are pending.
+     * 
+     * If the kernel or the subscriber throws an exception, the stream ends with
+     * that exception; the loop itself keeps running, so the work counter stays valid.
+     */
+    private void drain() {
+        int missed = 1;
+        do {
+            try {
+                this.drainOnce();
+            } catch (RuntimeException ex) {
+                this.fail(ex);
+            }
+            missed = this.work.addAndGet(-missed);
+        } while (missed != 0);
+    }
+    
+    /**
+     * Performs a single pass of the drain loop.
+     */
+    private void drainOnce() {
+        Flow.Subscriber<? super Classification> subscriber = this.downstream;
+        if (this.finished || subscriber == null) {
+            return;
+        }
+        if (this.error != null) {
+            this.finish();
+            subscriber.onError(this.error);
+            return;
+        }
+        while (true) {
+            while (this.demand.get() > 0 && !this.outputs.isEmpty()) {
+                this.demand.decrementAndGet();
+                subscriber.onNext(this.outputs.poll());
+                if (this.finished) {
+                    return;
+                }
+            }
+            if (this.outputs.isEmpty() && !this.inputs.isEmpty()
+                    && (this.demand.get() > 0 || this.inputs.size() >= this.batchSize)) {
+                this.classifyBatch();
+            } else {
+                break;
+            }
+        }
+        if (this.upstreamDone && this.inputs.isEmpty() && this.outputs.isEmpty()) {
+            this.finish();
+            subscriber.onComplete();
+            return;
+        }
+        Flow.Subscription subscription = this.upstream;
+        if (subscription != null && !this.upstreamDone) {
+            long room = 2L * this.batchSize - this.pending.get() - this.inputs.size() - this.outputs.size();
+            if (room >= this.batchSize) {
+                this.pending.addAndGet(room);
+                subscription.request(room);
+            }
+        }
+    }
+    
+    /**
+     * Classifies up to {@code batchSize} queued samples.
+     */
+    private void classifyBatch() {
+        for (int i = 0; i < this.batchSize; i++) {
+            Sample sample = this.inputs.poll();
+            if (sample == null) {
+                return;
+            }
+            double[] scores = new double[this.kernel.outputs()];
+            int digit = this.kernel.classify(sample.bits, scores);
+            this.outputs.add(new Classification(sample.id, digit, scores));
+        }
+    }
+    
+    /**
+     * Cancels the sample publisher and passes an exception thrown during the
+     * drain loop to the subscriber.
+     * 
+     * @param ex The exception thrown by the kernel or the subscriber.
+     */
+    private void fail(RuntimeException ex) {
+        Flow.Subscriber<? super Classification> subscriber = this.downstream;
+        if (this.finished || subscriber == null) {
+            return;
+        }
+        this.finish();
+        subscriber.onError(ex);
+    }
+    
+    /**
+     * Marks the stream as finished and releases all buffered items.
+     */
+    private void finish() {
+        this.finished = true;
+        this.inputs.clear();
+        this.outputs.clear();
+        Flow.Subscription subscription = this.upstream;
+        if (subscription != null && !this.upstreamDone) {
+            subscription.cancel();
+        }
+    }
+    
+}